@@ -0,0 +1,97 @@
+package physical_network;
+
+/**
+ * Checks that holding ACKs back saves ACK frames when traffic goes both ways.
+ * <p>
+ * Two cards send each other the same number of messages at once on the simulated clock,
+ * first with every ACK sent straight away and then with ACKs held back for the given delay,
+ * waiting for a data frame to ride on. Exits with status 1 if a message was lost, or if
+ * holding ACKs back did not at least halve the number of ACKs sent as frames of their own.
+ * <p>
+ * Usage: AckDelayCheck [ACK delay in ms] [messages per card]
+ */
+public class AckDelayCheck {
+
+    public static void main(String[] args) throws InterruptedException {
+        int ackDelay = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("ack delay  standalone acks  piggybacked acks  simulated s");
+        long[] immediate = run(0, messages);
+        long[] delayed = run(ackDelay, messages);
+
+        boolean failed = immediate == null || delayed == null;
+        if (failed) {
+            System.out.println("Messages did not all arrive.");
+        } else if (2 * delayed[0] > immediate[0]) {
+            System.out.println("Holding ACKs back did not halve the ACK frames sent.");
+            failed = true;
+        }
+        if (failed) System.exit(1);
+    }
+
+    /*
+     * Returns the ACKs sent as frames and piggybacked, or null if messages were lost.
+     */
+    private static long[] run(int ackDelay, final int messages) throws InterruptedException {
+        SimulatedClock clock = new SimulatedClock();
+        TwistedWirePair wire = new MyTwistedWirePair(clock);
+        final NetworkCard[] cards = new NetworkCard[2];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = new NetworkCard(i + 1, wire, NetworkCard.ArqMode.SELECTIVE_REPEAT, 4);
+            cards[i].setMediumAccess(MediumAccess.CSMA_CD);
+            cards[i].setAckDelay(ackDelay);
+            Simulation.init(cards[i]);
+        }
+
+        Thread[] sources = new Thread[cards.length];
+        for (int i = 0; i < cards.length; i++) {
+            final NetworkCard card = cards[i];
+            final int destination = cards.length - i;
+            sources[i] = Simulation.startDevice(clock, new Simulation.Task() {
+                public void run() throws InterruptedException {
+                    for (int m = 0; m < messages; m++) {
+                        card.send(new DataFrame("Message " + m, destination));
+                    }
+                }
+            });
+        }
+
+        // Receives on the second card here and on the first one in a thread of its own.
+        final boolean[] intact = {false};
+        Thread sink = Simulation.startDevice(clock, new Simulation.Task() {
+            public void run() throws InterruptedException {
+                intact[0] = receive(cards[0], messages);
+            }
+        });
+        boolean passed = receive(cards[1], messages);
+        sink.join();
+        passed &= intact[0];
+        long simulated = clock.currentTimeMillis();
+
+        for (Thread source : sources) {
+            source.join();
+        }
+        for (NetworkCard card : cards) {
+            card.shutdown();
+        }
+
+        long standalone = 0, piggybacked = 0;
+        for (NetworkCard card : cards) {
+            standalone += card.getMetrics().getAcksSent();
+            piggybacked += card.getMetrics().getAcksPiggybacked();
+        }
+        System.out.printf("%9d %16d %17d %12d%n", ackDelay, standalone, piggybacked, simulated / 1000);
+        return passed ? new long[]{standalone, piggybacked} : null;
+    }
+
+    private static boolean receive(NetworkCard card, int messages) throws InterruptedException {
+        for (int m = 0; m < messages; m++) {
+            DataFrame frame = card.receive();
+            boolean expected = frame.toString().equals("Message " + m);
+            frame.release();
+            if (!expected) return false;
+        }
+        return true;
+    }
+}
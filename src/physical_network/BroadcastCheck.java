@@ -0,0 +1,86 @@
+package physical_network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Checks that broadcasts and frames addressed to a single card can be mixed in every ARQ
+ * mode: every frame has to arrive exactly once, the frames addressed to the card in the
+ * order they were sent, and none of them may have to be resent on the quiet wire.
+ * <p>
+ * One card sends a run of frames to another on a quiet wire on the simulated clock, frames
+ * named b... broadcast and the others addressed to the second card. Exits with status 1 if
+ * any run delivered something different.
+ * <p>
+ * Usage: BroadcastCheck
+ */
+public class BroadcastCheck {
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean failed = false;
+        failed |= !run(NetworkCard.ArqMode.SELECTIVE_REPEAT, 4, "b0", "u0", "b1", "u1", "b2");
+        failed |= !run(NetworkCard.ArqMode.GO_BACK_N, 4, "u0", "b0", "u1", "u2", "b1", "u3");
+        failed |= !run(NetworkCard.ArqMode.STOP_AND_WAIT, 1, "u0", "b0", "u1", "b1", "u2");
+
+        if (failed) {
+            System.out.println("Broadcasts and frames to a single card did not all arrive once.");
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(NetworkCard.ArqMode arqMode, int windowSize, String... messages)
+            throws InterruptedException {
+        final SimulatedClock clock = new SimulatedClock();
+        TwistedWirePair wire = new MyTwistedWirePair(clock);
+        NetworkCard sender = Simulation.init(new NetworkCard(1, wire, arqMode, windowSize));
+        NetworkCard receiver = Simulation.init(new NetworkCard(2, wire, arqMode, windowSize));
+
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+        final long[] lastDelivery = new long[1];
+        Thread sink = Simulation.startSink(clock, receiver, new Simulation.Receiver() {
+            public void received(DataFrame frame) {
+                received.add(frame.toString());
+                lastDelivery[0] = clock.currentTimeMillis();
+            }
+        });
+
+        long start = clock.currentTimeMillis();
+        for (String message : messages) {
+            sender.send(new DataFrame(message, message.startsWith("b") ? 0 : 2));
+        }
+        clock.sleep(Simulation.QUIET_RUN_TIME - (clock.currentTimeMillis() - start));
+
+        sender.shutdown();
+        receiver.shutdown();
+        Simulation.stop(clock, sink);
+
+        List<String> delivered = new ArrayList<String>(received);
+        List<String> sent = new ArrayList<String>();
+        Collections.addAll(sent, messages);
+
+        long retransmissions = sender.getMetrics().getRetransmissions();
+        long duplicates = receiver.getMetrics().getDuplicateFrames();
+
+        boolean passed = retransmissions == 0 && duplicates == 0;
+        passed &= unicasts(delivered).equals(unicasts(sent));
+        Collections.sort(delivered);
+        Collections.sort(sent);
+        passed &= delivered.equals(sent);
+
+        System.out.printf("%-16s sent %s, delivered %s by %d s, %d resent, %d duplicates%n", arqMode,
+                String.join(" ", messages), String.join(" ", received), (lastDelivery[0] - start) / 1000,
+                retransmissions, duplicates);
+        return passed;
+    }
+
+    private static List<String> unicasts(List<String> messages) {
+        List<String> unicasts = new ArrayList<String>();
+        for (String message : messages) {
+            if (!message.startsWith("b")) unicasts.add(message);
+        }
+        return unicasts;
+    }
+}
@@ -0,0 +1,66 @@
+package physical_network;
+
+/**
+ * The byte stuffing that lets frames be told apart on the wire. Every frame ends with a
+ * FLAG byte, and any FLAG or ESCAPE byte inside a frame is sent with an ESCAPE in front.
+ */
+class ByteStuffing {
+
+    public static final int FLAG = 0x7E;
+    public static final int ESCAPE = 0x7D;
+
+    private ByteStuffing() {
+    }
+
+    /**
+     * @return Whether the byte has to be sent with an ESCAPE in front.
+     */
+    public static boolean needsEscape(int value) {
+        value &= 0xFF;
+        return value == FLAG || value == ESCAPE;
+    }
+
+    /**
+     * @return Number of bytes the first length bytes take up once stuffed, without the closing FLAG.
+     */
+    public static int stuffedLength(byte[] bytes, int length) {
+        int stuffed = length;
+        for (int i = 0; i < length; i++) {
+            if (needsEscape(bytes[i])) stuffed++;
+        }
+        return stuffed;
+    }
+
+    /**
+     * Stuffs the first length bytes and closes them with a FLAG. The output needs room for
+     * stuffedLength(bytes, length) + 1 bytes.
+     *
+     * @return Number of bytes written.
+     */
+    public static int stuff(byte[] bytes, int length, byte[] stuffed) {
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            if (needsEscape(bytes[i])) stuffed[index++] = (byte) ESCAPE;
+            stuffed[index++] = bytes[i];
+        }
+        stuffed[index++] = (byte) FLAG;
+        return index;
+    }
+
+    /**
+     * Reverses stuff(), reading up to the closing FLAG.
+     *
+     * @return Number of bytes written, or -1 if the frame is not closed or does not fit.
+     */
+    public static int unstuff(byte[] stuffed, int length, byte[] bytes) {
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            int value = stuffed[i] & 0xFF;
+            if (value == FLAG) return index;
+            if (value == ESCAPE && ++i == length) return -1;
+            if (index == bytes.length) return -1;
+            bytes[index++] = stuffed[i];
+        }
+        return -1;
+    }
+}
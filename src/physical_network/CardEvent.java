@@ -0,0 +1,94 @@
+package physical_network;
+
+/**
+ * Things a network card reports while it is running, each with a level of importance.
+ * <p>
+ * Every event comes with the other card involved and a number whose meaning depends on
+ * the event, both -1 when they do not apply. The description says which is which.
+ */
+public enum CardEvent {
+
+    BYTE_RECEIVED(EventLevel.TRACE, "received byte %x."),
+
+    FRAME_SENT(EventLevel.DEBUG, "sent frame %v to %p!"),
+    FRAME_BROADCAST(EventLevel.DEBUG, "broadcasted a frame to everyone!"),
+    ACK_SENT(EventLevel.DEBUG, "sent an ACK for frame %v to %p!"),
+    ACK_PIGGYBACKED(EventLevel.DEBUG, "piggybacked an ACK for frame %v to %p!"),
+    ACK_RECEIVED(EventLevel.DEBUG, "received an ACK for frame %v from %p!"),
+    FRAME_RECEIVED(EventLevel.DEBUG, "received frame %v from %p, adding ACK to queue!"),
+    BROADCAST_RECEIVED(EventLevel.DEBUG, "received a frame from %p addressed to everyone, not sending an ACK."),
+    FRAME_NOT_ADDRESSED(EventLevel.DEBUG, "received data frame addressed to %p. Ignoring."),
+    ERRORS_CORRECTED(EventLevel.DEBUG, "corrected %v errors in received frame."),
+
+    RETRANSMIT(EventLevel.INFO, "timed out while waiting for ACK! Resending frame %v to %p..."),
+    DUPLICATE_ACK(EventLevel.INFO, "received duplicate ACK for frame %v from %p, ignoring..."),
+    DUPLICATE_FRAME(EventLevel.INFO, "received duplicate frame %v from %p! Sending ACK and ignoring contents."),
+    FRAME_OUTSIDE_WINDOW(EventLevel.INFO, "received frame %v from %p outside of the window. Ignoring."),
+    FRAME_OUT_OF_SEQUENCE(EventLevel.INFO, "received frame %v from %p out of sequence! Ignoring."),
+    COLLISION(EventLevel.INFO, "detected collision %v of a frame! Jamming..."),
+    STOPPED(EventLevel.INFO, "was interrupted and has stopped."),
+
+    CORRUPTED_FRAME(EventLevel.WARNING, "received corrupted data frame! Ignoring."),
+    CORRUPTED_ACK(EventLevel.WARNING, "received corrupted ACK! Ignoring."),
+    UNCORRECTABLE_FRAME(EventLevel.WARNING, "received frame with uncorrectable errors! Ignoring."),
+    CARRIER_LOST(EventLevel.WARNING, "lost the signal in the middle of a frame! Ignoring."),
+    FRAME_TOO_LONG(EventLevel.WARNING, "received a frame longer than any frame can be! Ignoring."),
+    GAVE_UP_SENDING(EventLevel.WARNING, "exhausted all resend attempts! Giving up on frame %v to %p..."),
+    GAVE_UP_WAITING(EventLevel.WARNING, "gave up waiting for frame %v from %p!"),
+    FRAME_ABORTED(EventLevel.WARNING, "collided %v times! Dropping frame...");
+
+    private static final CardEvent[] VALUES = values();
+
+    private final EventLevel level;
+    private final String description;
+
+    CardEvent(EventLevel level, String description) {
+        this.level = level;
+        this.description = description;
+    }
+
+    public EventLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * @return What happened in words, with %p standing for the other card, %v for the
+     * number and %x for the number in hex.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return The description with the other card and the number filled in.
+     */
+    public String describe(int peer, int value) {
+        StringBuilder text = new StringBuilder(description.length() + 16);
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (c != '%' || i + 1 == description.length()) {
+                text.append(c);
+                continue;
+            }
+            char field = description.charAt(++i);
+            if (field == 'p') {
+                text.append(peer);
+            } else if (field == 'v') {
+                text.append(value);
+            } else if (field == 'x') {
+                text.append(Integer.toHexString(value));
+            } else {
+                text.append(c).append(field);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The event with the given ordinal, as stored in binary traces, or null if there is none.
+     */
+    public static CardEvent fromOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) return null;
+        return VALUES[ordinal];
+    }
+}
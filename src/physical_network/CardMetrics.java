@@ -0,0 +1,224 @@
+package physical_network;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of what a network card has done so far, see NetworkCard.getMetrics().
+ * <p>
+ * Most counters follow the events the card reports, whatever level it reports them at.
+ * Every counter is only ever added to by one of the card's threads, so atomic longs are
+ * as cheap as anything striped would be, and can be read from any thread at any time.
+ */
+public class CardMetrics implements CardMetricsMBean {
+
+    // Data frames put on the wire, retransmissions included, and their payload bytes.
+    final AtomicLong framesSent = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+
+    // Data frames accepted and passed on, fragments counted one by one, and their payload bytes.
+    final AtomicLong framesReceived = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+
+    // ACKs sent as frames of their own, ACKs carried in the header of a data frame, and ACKs
+    // received addressed to this card.
+    final AtomicLong acksSent = new AtomicLong();
+    final AtomicLong acksPiggybacked = new AtomicLong();
+    final AtomicLong acksReceived = new AtomicLong();
+
+    final AtomicLong retransmissions = new AtomicLong();
+    final AtomicLong giveUps = new AtomicLong();
+    final AtomicLong corruptedFrames = new AtomicLong();
+    final AtomicLong duplicateFrames = new AtomicLong();
+    final AtomicLong duplicateAcks = new AtomicLong();
+
+    // Received frames which needed correcting, and those which had too many errors to correct.
+    final AtomicLong correctedFrames = new AtomicLong();
+    final AtomicLong uncorrectableFrames = new AtomicLong();
+
+    // CSMA/CD: collisions detected, and frames dropped after colliding too often.
+    final AtomicLong collisions = new AtomicLong();
+    final AtomicLong abortedFrames = new AtomicLong();
+
+    // Time from sending a frame to its ACK, for frames that were not resent.
+    final LatencyHistogram rtt = new LatencyHistogram();
+
+    private final Collection<?> outputQueue;
+    private final Collection<?> inputQueue;
+
+    CardMetrics(Collection<?> outputQueue, Collection<?> inputQueue) {
+        this.outputQueue = outputQueue;
+        this.inputQueue = inputQueue;
+    }
+
+    /*
+     * Counts an event the card reports.
+     */
+    void count(CardEvent event) {
+        switch (event) {
+            case ACK_SENT:
+                acksSent.incrementAndGet();
+                break;
+            case ACK_PIGGYBACKED:
+                acksPiggybacked.incrementAndGet();
+                break;
+            case ACK_RECEIVED:
+                acksReceived.incrementAndGet();
+                break;
+            case RETRANSMIT:
+                retransmissions.incrementAndGet();
+                break;
+            case GAVE_UP_SENDING:
+                giveUps.incrementAndGet();
+                break;
+            case CORRUPTED_FRAME:
+            case CORRUPTED_ACK:
+                corruptedFrames.incrementAndGet();
+                break;
+            case DUPLICATE_FRAME:
+                duplicateFrames.incrementAndGet();
+                break;
+            case DUPLICATE_ACK:
+                duplicateAcks.incrementAndGet();
+                break;
+            case ERRORS_CORRECTED:
+                correctedFrames.incrementAndGet();
+                break;
+            case UNCORRECTABLE_FRAME:
+                uncorrectableFrames.incrementAndGet();
+                break;
+            case COLLISION:
+                collisions.incrementAndGet();
+                break;
+            case FRAME_ABORTED:
+                abortedFrames.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return Number of ACKs sent as frames of their own.
+     */
+    public long getAcksSent() {
+        return acksSent.get();
+    }
+
+    /**
+     * @return Number of ACKs carried in the header of a data frame instead, see NetworkCard.setAckDelay().
+     */
+    public long getAcksPiggybacked() {
+        return acksPiggybacked.get();
+    }
+
+    public long getAcksReceived() {
+        return acksReceived.get();
+    }
+
+    /**
+     * @return Number of times a data frame was sent again after its ACK did not come in time.
+     */
+    public long getRetransmissions() {
+        return retransmissions.get();
+    }
+
+    /**
+     * @return Number of frames given up on after MAX_RESEND retransmissions.
+     */
+    public long getGiveUps() {
+        return giveUps.get();
+    }
+
+    /**
+     * @return Number of received data frames and ACKs that failed their checks.
+     */
+    public long getCorruptedFrames() {
+        return corruptedFrames.get();
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames.get();
+    }
+
+    public long getDuplicateAcks() {
+        return duplicateAcks.get();
+    }
+
+    public long getCorrectedFrames() {
+        return correctedFrames.get();
+    }
+
+    public long getUncorrectableFrames() {
+        return uncorrectableFrames.get();
+    }
+
+    public long getCollisions() {
+        return collisions.get();
+    }
+
+    public long getAbortedFrames() {
+        return abortedFrames.get();
+    }
+
+    /**
+     * @return Number of frames waiting to be sent right now.
+     */
+    public int getOutputQueueDepth() {
+        return outputQueue.size();
+    }
+
+    /**
+     * @return Number of received frames waiting to be taken with receive() right now.
+     */
+    public int getInputQueueDepth() {
+        return inputQueue.size();
+    }
+
+    /**
+     * @return Round-trip times of the frames sent so far, for percentiles beyond the ones below.
+     */
+    public LatencyHistogram getRtt() {
+        return rtt;
+    }
+
+    public long getRttSamples() {
+        return rtt.getCount();
+    }
+
+    public double getRttMean() {
+        return rtt.getMean();
+    }
+
+    public long getRttP50() {
+        return rtt.getPercentile(50);
+    }
+
+    public long getRttP90() {
+        return rtt.getPercentile(90);
+    }
+
+    public long getRttP99() {
+        return rtt.getPercentile(99);
+    }
+
+    public long getRttMax() {
+        return rtt.getMax();
+    }
+}
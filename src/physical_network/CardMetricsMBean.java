@@ -0,0 +1,56 @@
+package physical_network;
+
+/**
+ * The metrics of a network card as seen over JMX, see NetworkCard.registerMBean().
+ * Durations are in milliseconds of the card's clock.
+ */
+public interface CardMetricsMBean {
+
+    long getFramesSent();
+
+    long getBytesSent();
+
+    long getFramesReceived();
+
+    long getBytesReceived();
+
+    long getAcksSent();
+
+    long getAcksPiggybacked();
+
+    long getAcksReceived();
+
+    long getRetransmissions();
+
+    long getGiveUps();
+
+    long getCorruptedFrames();
+
+    long getDuplicateFrames();
+
+    long getDuplicateAcks();
+
+    long getCorrectedFrames();
+
+    long getUncorrectableFrames();
+
+    long getCollisions();
+
+    long getAbortedFrames();
+
+    int getOutputQueueDepth();
+
+    int getInputQueueDepth();
+
+    long getRttSamples();
+
+    double getRttMean();
+
+    long getRttP50();
+
+    long getRttP90();
+
+    long getRttP99();
+
+    long getRttMax();
+}
@@ -0,0 +1,95 @@
+package physical_network;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Checks that a wire can carry thousands of cards when they run on virtual threads.
+ * <p>
+ * All cards are attached to one wire on the simulated clock and started, then frames are
+ * passed one at a time between cards spread across the range, each one received by a card
+ * other than the last. Frame headers only have room for addresses up to 255, so frames go
+ * between the first 255 cards, but every card listens to the wire and decodes every frame.
+ * Exits with status 1 if a frame does not arrive intact, or if the cards took as many
+ * operating system threads as there are cards.
+ * <p>
+ * Virtual threads need Java 21 or later, so the check does too. PLATFORM threads run on
+ * Java 17 but take two operating system threads per card, so with them the check only
+ * looks at the frames and reports the threads taken, for a few dozen cards at a time.
+ * <p>
+ * Usage: CardScaleCheck [cards] [PLATFORM|VIRTUAL] [frames]
+ */
+public class CardScaleCheck {
+
+    // Highest address a frame header can hold.
+    private static final int MAX_ADDRESS = 255;
+
+    public static void main(String[] args) throws InterruptedException {
+        int cardCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        ThreadModel threadModel = args.length > 1 ? ThreadModel.valueOf(args[1]) : ThreadModel.VIRTUAL;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        if (!threadModel.isSupported()) {
+            System.out.println(threadModel + " threads need Java 21 or later, this is Java "
+                    + Runtime.version().feature() + ".");
+            System.exit(1);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        SimulatedClock clock = new SimulatedClock();
+        TwistedWirePair wire = new MyTwistedWirePair(clock);
+
+        long start = System.nanoTime();
+        NetworkCard[] cards = new NetworkCard[cardCount];
+        for (int i = 0; i < cardCount; i++) {
+            cards[i] = new NetworkCard(i + 1, wire);
+            cards[i].setThreadFactory(threadModel);
+            // Keeps the next frame off the wire until the ACK of the last one has gone.
+            cards[i].setMediumAccess(MediumAccess.CSMA_CD);
+            Simulation.init(cards[i]);
+        }
+        double startSeconds = (System.nanoTime() - start) / 1e9;
+
+        boolean failed = false;
+        start = System.nanoTime();
+        long simulatedStart = clock.currentTimeMillis();
+        int addressable = Math.min(cardCount, MAX_ADDRESS);
+        for (int i = 0; i < frames; i++) {
+            int source = i * addressable / frames;
+            int destination = (source + addressable / 2) % addressable;
+
+            String message = "Frame " + i + " from " + (source + 1);
+            cards[source].send(new DataFrame(message, destination + 1));
+            DataFrame frame = cards[destination].receive();
+            if (!frame.toString().equals(message)) failed = true;
+            frame.release();
+        }
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+        long simulated = clock.currentTimeMillis() - simulatedStart;
+
+        int peakThreads = threads.getPeakThreadCount();
+
+        start = System.nanoTime();
+        for (NetworkCard card : cards) {
+            card.shutdown();
+        }
+        double shutdownSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d cards on %s threads: started in %.2f s, stopped in %.2f s%n",
+                cardCount, threadModel, startSeconds, shutdownSeconds);
+        System.out.printf("%d frames over %d ms of wire in %.2f s%n", frames, simulated, sendSeconds);
+        System.out.printf("operating system threads: %d before, %d at peak%n", threadsBefore, peakThreads);
+
+        if (failed) {
+            System.out.println("Frames did not arrive intact.");
+            System.exit(1);
+        }
+        if (threadModel != ThreadModel.PLATFORM && peakThreads - threadsBefore >= cardCount) {
+            System.out.println("Cards took an operating system thread each.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package physical_network;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Source of time for everything attached to a wire.
+ * <p>
+ * Devices never call Thread.sleep() or System.currentTimeMillis() directly,
+ * they go through the clock of the wire they are attached to. This allows the
+ * whole network to either run in real time (for demos with the oscilloscope)
+ * or on a simulated clock where time jumps straight to the next pending event.
+ * <p>
+ * Every blocking operation a device thread performs must also go through the
+ * clock, otherwise a simulated clock cannot tell whether the thread is busy or
+ * waiting and time would stop advancing.
+ */
+public interface Clock {
+
+    /**
+     * @return Current time on this clock in milliseconds.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Blocks the calling thread for the given amount of clock time.
+     *
+     * @param millis Time to sleep in milliseconds.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Takes an element from the queue, waiting until one is available.
+     */
+    <E> E take(BlockingQueue<E> queue) throws InterruptedException;
+
+    /**
+     * Takes an element from the queue, waiting up to the timeout for one to become available.
+     *
+     * @return The element or null if the timeout elapsed first.
+     */
+    <E> E poll(BlockingQueue<E> queue, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Puts an element into the queue, waiting for space if it is full.
+     */
+    <E> void put(BlockingQueue<E> queue, E element) throws InterruptedException;
+
+    /**
+     * Puts an element into the queue if there is space for it.
+     *
+     * @return True if the element was added.
+     */
+    <E> boolean offer(BlockingQueue<E> queue, E element);
+
+    /**
+     * Registers a device thread with the clock. Must be called before the thread is started.
+     */
+    void register(Thread thread);
+
+    /**
+     * Removes a device thread from the clock once it has finished running.
+     */
+    void unregister(Thread thread);
+
+    /**
+     * Interrupts a device thread. Device threads must be stopped this way rather than with
+     * Thread.interrupt(), so that a simulated clock waits for them to wind down instead of
+     * running on without them.
+     */
+    void interrupt(Thread thread);
+
+}
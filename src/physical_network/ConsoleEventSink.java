@@ -0,0 +1,27 @@
+package physical_network;
+
+import java.io.PrintStream;
+
+/**
+ * Prints every event as a line of text, the way the cards have always reported what they do.
+ */
+public class ConsoleEventSink implements EventSink {
+
+    private final PrintStream out;
+
+    /**
+     * Prints to whatever System.out is at the time of each event.
+     */
+    public ConsoleEventSink() {
+        this.out = null;
+    }
+
+    public ConsoleEventSink(PrintStream out) {
+        this.out = out;
+    }
+
+    public void event(long time, int device, CardEvent event, int peer, int value) {
+        PrintStream stream = out != null ? out : System.out;
+        stream.println("*** NetCard" + device + " " + event.describe(peer, value));
+    }
+}
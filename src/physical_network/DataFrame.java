@@ -8,25 +8,52 @@
 
 package physical_network;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Encapsulates the data for a network 'data frame'.
  * At the moment this just includes a data byte array.
  * This may need to be extended to include necessary header information.
+ * <p>
+ * Frames are encoded straight into a single buffer with encode(), and frames decoded
+ * with decode() keep their header and payload as views of the received bytes, so
+ * neither way copies the payload more than the once it goes into the buffer.
  *
  * @author kevin-b
  */
 
 public class DataFrame {
 
+    private static final byte[] NO_BYTES = new byte[0];
+
     private Header header;
     private Data data;
 
+    // Check protecting the payload, flagged in the header.
+    private FrameCheck frameCheck = FrameCheck.SUM16;
+
+    // Received frames: the pool the frame goes back to once released, the buffer the frame
+    // is decoded from, and whether the frame is waiting in the pool.
+    private FramePool pool;
+    private byte[] buffer;
+    private boolean pooled;
+
     public DataFrame() {
         this.data = new Data();
         this.header = new Header();
         this.header.setPayloadLength(this.data.getLength());
     }
 
+    /*
+     * A frame for the receiver to decode into over and over, see FramePool.
+     */
+    DataFrame(FramePool pool, int bufferSize) {
+        this();
+        this.pool = pool;
+        this.buffer = new byte[bufferSize];
+    }
+
     public DataFrame(byte[] payload) {
         this.data = new Data(payload);
         this.header = new Header();
@@ -54,36 +81,152 @@ public class DataFrame {
     /*
      * A factory method that can be used to create a data frame
      * from an array of bytes that have been received.
+     * The frame keeps referring to the array, which must not change afterwards.
      */
     public static DataFrame createFromReceivedBytes(byte[] bytes) {
+        if (bytes == null) return null;
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes the frame between the position and the limit of the buffer, without
+     * changing either. The header and payload of the frame are views of the buffer,
+     * which must not change for as long as the frame is used. Buffers without an
+     * accessible array are copied out first.
+     *
+     * @return The frame, or null if the bytes can not be a frame. The checksums
+     * still have to be verified.
+     */
+    public static DataFrame decode(ByteBuffer buffer) {
+        if (buffer == null) return null;
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(buffer.position(), bytes);
+            return decode(bytes, 0, bytes.length);
+        }
+        return decode(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    private static DataFrame decode(byte[] bytes, int start, int length) {
+        DataFrame frame = new DataFrame();
+        return frame.read(bytes, start, length) ? frame : null;
+    }
+
+    /*
+     * Turns this frame into the one received in the given range of the array.
+     * Returns false, leaving the frame in an undefined state, if the bytes can not be a frame.
+     */
+    private boolean read(byte[] bytes, int start, int length) {
 
         // Invalid array
-        if (bytes == null || bytes.length < 9) return null;
+        if (length < Header.MIN_LENGTH + 2) return false;
+
+        int end = start + length;
+        int flags = bytes[start + 3] & 0xFF;
+        int index = start + 4;
+
+        // Unknown frame check, most likely a corrupted header
+        FrameCheck frameCheck = FrameCheck.fromId((flags & Header.FRAME_CHECK_MASK) >> Header.FRAME_CHECK_SHIFT);
+        if (frameCheck == null) return false;
+        int checkLength = frameCheck.getLength();
+
+        // Optional fields, only present if flagged
+        int piggybackAck = 0;
+        if ((flags & Header.FLAG_PIGGYBACK_ACK) != 0) piggybackAck = bytes[index++] & 0xFF;
+
+        int messageId = 0;
+        int fragmentOffset = 0;
+        if ((flags & Header.FLAG_FRAGMENT) != 0) {
+            if (end < index + 6) return false;
+            messageId = ((bytes[index] & 0xFF) << 8) | (bytes[index + 1] & 0xFF);
+            fragmentOffset = ((bytes[index + 2] & 0xFF) << 24) | ((bytes[index + 3] & 0xFF) << 16)
+                    | ((bytes[index + 4] & 0xFF) << 8) | (bytes[index + 5] & 0xFF);
+            index += 6;
+        }
 
-        int source = bytes[0] & 0xFF;
-        int destination = bytes[1] & 0xFF;
-        int ack = bytes[2] & 0xFF;
-        int payloadLength = ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+        if (end < index + 4 + checkLength) return false;
+
+        int payloadLength = ((bytes[index] & 0xFF) << 8) | (bytes[index + 1] & 0xFF);
+        int headerChecksum = ((bytes[index + 2] & 0xFF) << 8) | (bytes[index + 3] & 0xFF);
+        index += 4;
 
         // Data length in the header does not match the received data
-        if (bytes.length - 9 != payloadLength) return null;
+        if (end - index - checkLength != payloadLength) return false;
 
-        int headerChecksum = ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+        int payloadChecksum = 0;
+        for (int i = end - checkLength; i < end; i++) {
+            payloadChecksum = (payloadChecksum << 8) | (bytes[i] & 0xFF);
+        }
 
-        byte[] payload = new byte[payloadLength];
-        System.arraycopy(bytes, 7, payload, 0, payloadLength);
-        int payloadChecksum = ((bytes[bytes.length - 2] & 0xFF) << 8) | (bytes[bytes.length - 1] & 0xFF);
+        this.frameCheck = frameCheck;
+
+        Header header = this.header;
+        header.source8 = bytes[start] & 0xFF;
+        header.destination8 = bytes[start + 1] & 0xFF;
+        header.ack8 = bytes[start + 2] & 0xFF;
+        header.flags8 = flags;
+        header.piggybackAck8 = piggybackAck;
+        header.messageId16 = messageId;
+        header.fragmentOffset32 = fragmentOffset;
+        header.payloadLength16 = payloadLength;
+        header.setChecksum(headerChecksum);
+        header.received = bytes;
+        header.receivedOffset = start;
+
+        this.data.setBytes(bytes, index, payloadLength);
+        this.data.setChecksum(payloadChecksum);
+
+        return true;
+    }
 
-        DataFrame frame = new DataFrame();
-        frame.getHeader().setSource(source);
-        frame.getHeader().setDestination(destination);
-        frame.getHeader().setAck(ack);
-        frame.getHeader().setPayloadLength(payloadLength);
-        frame.getHeader().setChecksum(headerChecksum);
-        frame.getData().setBytes(payload);
-        frame.getData().setChecksum16(payloadChecksum);
-
-        return frame;
+    /*
+     * Decodes the frame received into the first length bytes of the buffer of a pooled frame.
+     */
+    boolean readBuffer(int length) {
+        return this.read(buffer, 0, length);
+    }
+
+    /*
+     * Buffer of a pooled frame, for the receiver to put the bytes of the next frame into.
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Hands a received frame back to the card it came from, which reuses its memory
+     * for the frames that follow. Neither the frame nor anything taken from it without
+     * copying, like getData().getPayload(), may be used afterwards. Does nothing for
+     * frames that were not received by a card.
+     */
+    public void release() {
+        if (pool != null) pool.release(this);
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
+
+    void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Writes the whole frame, header, payload and frame check, into the buffer at its
+     * position and moves the position past it.
+     *
+     * @throws java.nio.BufferOverflowException If the frame does not fit, see getEncodedLength().
+     */
+    public void encode(ByteBuffer buffer) {
+        header.encode(buffer);
+        data.encode(buffer);
+    }
+
+    /**
+     * @return Number of bytes encode() takes up.
+     */
+    public int getEncodedLength() {
+        return header.getLength() + data.getLength() + frameCheck.getLength();
     }
 
     /*
@@ -95,9 +238,9 @@ public class DataFrame {
      * frame is transmitted and received.
      */
     public byte[] getTransmittedBytes() {
-        byte[] header = this.header.getTransmittedBytes();
-        byte[] data = this.data.getTransmittedBytes();
-        return this.concat(header, data);
+        byte[] bytes = new byte[this.getEncodedLength()];
+        this.encode(ByteBuffer.wrap(bytes));
+        return bytes;
     }
 
     /**
@@ -112,6 +255,21 @@ public class DataFrame {
         return c;
     }
 
+    /**
+     * Selects the check protecting the payload. The header is protected by a CRC-16
+     * as soon as anything other than the 16-bit sum is used.
+     */
+    public void setFrameCheck(FrameCheck frameCheck) {
+        this.frameCheck = frameCheck;
+        int flags = header.getFlags() & ~Header.FRAME_CHECK_MASK;
+        header.setFlags(flags | (frameCheck.getId() << Header.FRAME_CHECK_SHIFT));
+        data.changed();
+    }
+
+    public FrameCheck getFrameCheck() {
+        return frameCheck;
+    }
+
     public Header getHeader() {
         return header;
     }
@@ -124,68 +282,206 @@ public class DataFrame {
      * Represents the header of a data frame
      */
     public class Header {
+
+        /**
+         * Flag for an ACK carried along in the header, for a frame sent by the destination to the source.
+         */
+        public static final int FLAG_PIGGYBACK_ACK = 0x01;
+
+        /**
+         * Bits of the flags holding the id of the frame check used, see FrameCheck.
+         */
+        public static final int FRAME_CHECK_MASK = 0x06;
+        public static final int FRAME_CHECK_SHIFT = 1;
+
+        /**
+         * Flags for a frame carrying part of a larger message, and for all but the last part.
+         */
+        public static final int FLAG_FRAGMENT = 0x08;
+        public static final int FLAG_MORE_FRAGMENTS = 0x10;
+
+        /**
+         * Length of the header in bytes without any optional fields.
+         */
+        public static final int MIN_LENGTH = 8;
+
+        /**
+         * Length of the header in bytes with all optional fields.
+         */
+        public static final int MAX_LENGTH = MIN_LENGTH + 7;
+
         private int source8;
         private int destination8;
         private int ack8;
+        private int flags8;
+        private int piggybackAck8;
+        private int messageId16;
+        private int fragmentOffset32;
         private int payloadLength16;
         private int checksum16;
 
-        private byte[] transmittedBytes;
+        // The checksum is worked out when it is needed, not on every change.
+        private boolean checksumStale = true;
+
+        // The header as it was received, for decoded frames that have not been changed since.
+        private byte[] received;
+        private int receivedOffset;
+
+        // Fields laid out to work out the CRC of headers that have not been received as they are.
+        private ByteBuffer fields;
 
         public boolean verifyChecksum() {
+            if (checksumStale) updateChecksum();
             return this.checksum16 == calculateChecksum();
         }
 
         public void updateChecksum() {
             this.checksum16 = calculateChecksum();
-            this.transmittedBytes = new byte[]{
-                    (byte) (this.source8 & 0xFF),
-                    (byte) (this.destination8 & 0xFF),
-                    (byte) (this.ack8 & 0xFF),
-                    (byte) ((this.payloadLength16 >> 8) & 0xFF),
-                    (byte) (this.payloadLength16 & 0xFF),
-                    (byte) ((this.checksum16 >> 8) & 0xFF),
-                    (byte) (this.checksum16 & 0xFF)
-            };
+            this.checksumStale = false;
+        }
+
+        /**
+         * @return Number of bytes the header takes up, including the optional fields flagged.
+         */
+        public int getLength() {
+            int length = MIN_LENGTH;
+            if (this.hasPiggybackAck()) length += 1;
+            if (this.isFragment()) length += 6;
+            return length;
+        }
+
+        /*
+         * Writes the header with a freshly worked out checksum into the buffer.
+         */
+        private void encode(ByteBuffer buffer) {
+            int start = buffer.position();
+            this.putFields(buffer);
+
+            // The CRC covers the bytes above, so they have to be in place first.
+            if (frameCheck != FrameCheck.SUM16) {
+                this.checksum16 = FrameCheck.CRC16_CCITT.calculate(buffer, start, buffer.position() - start);
+            } else {
+                this.checksum16 = this.sumFields();
+            }
+            this.checksumStale = false;
+            buffer.putShort((short) this.checksum16);
+        }
+
+        /*
+         * Writes all fields apart from the checksum.
+         */
+        private void putFields(ByteBuffer buffer) {
+            buffer.put((byte) this.source8);
+            buffer.put((byte) this.destination8);
+            buffer.put((byte) this.ack8);
+            buffer.put((byte) this.flags8);
+            if (this.hasPiggybackAck()) {
+                buffer.put((byte) this.piggybackAck8);
+            }
+            if (this.isFragment()) {
+                buffer.putShort((short) this.messageId16);
+                buffer.putInt(this.fragmentOffset32);
+            }
+            buffer.putShort((short) this.payloadLength16);
         }
 
         private int calculateChecksum() {
-            int[] integers = new int[]{
-                    source8,
-                    destination8,
-                    ack8,
-                    payloadLength16
-            };
-            int sum = 0;
-            for (int integer : integers) {
-                int localSum = sum + integer;
-                sum = (localSum & 0xFFFF) + (localSum >> 16);
+            if (frameCheck == FrameCheck.SUM16) return this.sumFields();
+
+            if (received != null) {
+                return FrameCheck.CRC16_CCITT.calculate(received, receivedOffset, this.getLength() - 2);
             }
+            // Pooled frames keep their header, so the buffer is only ever made once per frame.
+            if (fields == null) fields = ByteBuffer.allocate(MAX_LENGTH);
+            fields.clear();
+            this.putFields(fields);
+            return FrameCheck.CRC16_CCITT.calculate(fields, 0, fields.position());
+        }
+
+        private int sumFields() {
+            int sum = onesComplementAdd(0, source8);
+            sum = onesComplementAdd(sum, destination8);
+            sum = onesComplementAdd(sum, ack8);
+            sum = onesComplementAdd(sum, flags8);
+            sum = onesComplementAdd(sum, piggybackAck8);
+            sum = onesComplementAdd(sum, messageId16);
+            sum = onesComplementAdd(sum, fragmentOffset32 >>> 16);
+            sum = onesComplementAdd(sum, fragmentOffset32 & 0xFFFF);
+            sum = onesComplementAdd(sum, payloadLength16);
             return ~sum & 0xFFFF;
         }
 
+        private int onesComplementAdd(int sum, int value) {
+            int localSum = sum + value;
+            return (localSum & 0xFFFF) + (localSum >> 16);
+        }
+
+        private void changed() {
+            this.checksumStale = true;
+            this.received = null;
+        }
+
         public void setSource(int source8) {
             this.source8 = source8;
-            updateChecksum();
+            changed();
         }
 
         public void setDestination(int destination8) {
             this.destination8 = destination8;
-            updateChecksum();
+            changed();
         }
 
         public void setAck(int ack8) {
             this.ack8 = ack8;
-            updateChecksum();
+            changed();
+        }
+
+        public void setFlags(int flags8) {
+            this.flags8 = flags8;
+            changed();
+        }
+
+        /**
+         * Carries an ACK for a frame the destination sent to the source along with this frame.
+         */
+        public void setPiggybackAck(int ack8) {
+            this.piggybackAck8 = ack8;
+            this.flags8 |= FLAG_PIGGYBACK_ACK;
+            changed();
+        }
+
+        public void clearPiggybackAck() {
+            this.piggybackAck8 = 0;
+            this.flags8 &= ~FLAG_PIGGYBACK_ACK;
+            changed();
+        }
+
+        /**
+         * Marks the frame as the part of a larger message starting at the given offset.
+         *
+         * @param messageId16 Tells apart the messages of one source, the same for all their parts.
+         * @param more        Whether any parts of the message follow this one.
+         */
+        public void setFragment(int messageId16, int fragmentOffset32, boolean more) {
+            this.messageId16 = messageId16 & 0xFFFF;
+            this.fragmentOffset32 = fragmentOffset32;
+            this.flags8 |= FLAG_FRAGMENT;
+            if (more) {
+                this.flags8 |= FLAG_MORE_FRAGMENTS;
+            } else {
+                this.flags8 &= ~FLAG_MORE_FRAGMENTS;
+            }
+            changed();
         }
 
         public void setPayloadLength(int payloadLength16) {
             this.payloadLength16 = payloadLength16;
-            updateChecksum();
+            changed();
         }
 
         public void setChecksum(int checksum) {
             this.checksum16 = checksum;
+            this.checksumStale = false;
         }
 
         public int getSource() {
@@ -200,72 +496,137 @@ public class DataFrame {
             return ack8;
         }
 
+        public int getFlags() {
+            return flags8;
+        }
+
+        public boolean hasPiggybackAck() {
+            return (flags8 & FLAG_PIGGYBACK_ACK) != 0;
+        }
+
+        public int getPiggybackAck() {
+            return piggybackAck8;
+        }
+
+        public boolean isFragment() {
+            return (flags8 & FLAG_FRAGMENT) != 0;
+        }
+
+        public boolean hasMoreFragments() {
+            return (flags8 & FLAG_MORE_FRAGMENTS) != 0;
+        }
+
+        public int getMessageId() {
+            return messageId16;
+        }
+
+        public int getFragmentOffset() {
+            return fragmentOffset32;
+        }
+
         public byte[] getTransmittedBytes() {
-            return transmittedBytes;
+            byte[] bytes = new byte[this.getLength()];
+            this.encode(ByteBuffer.wrap(bytes));
+            return bytes;
         }
     }
 
     /**
-     * Represents the data of the data frame
+     * Represents the data of the data frame, a range of a byte array that may be
+     * shared with the rest of a received frame.
      */
     public class Data {
         private byte[] bytes;
-        private int checksum16;
+        private int offset;
+        private int length;
+        private int checksum;
 
-        private byte[] transmittedBytes;
+        // The checksum is worked out when it is needed, not on every change.
+        private boolean checksumStale = true;
 
         public Data() {
-            this.bytes = new byte[0];
+            this.bytes = NO_BYTES;
         }
 
         public Data(byte[] payload) {
-            this.bytes = payload;
-            updateChecksum();
+            this.setBytes(payload);
         }
 
         public boolean verifyChecksum() {
-            return this.checksum16 == this.calculateChecksum();
+            if (checksumStale) updateChecksum();
+            return this.checksum == this.calculateChecksum();
         }
 
         public void updateChecksum() {
-            this.checksum16 = calculateChecksum();
-            byte[] checksum = new byte[]{
-                    (byte) ((this.checksum16 >> 8) & 0xff),
-                    (byte) (this.checksum16 & 0xff)
-            };
-            this.transmittedBytes = concat(this.bytes, checksum);
+            this.checksum = calculateChecksum();
+            this.checksumStale = false;
         }
 
         private int calculateChecksum() {
-            int sum = 0;
+            return frameCheck.calculate(this.bytes, this.offset, this.length);
+        }
 
-            for (byte _byte : this.bytes) {
-                int localSum = sum + (int) _byte;
-                sum = (localSum & 0xffff) + (localSum >> 16);
+        /*
+         * Writes the payload followed by its check value into the buffer.
+         */
+        private void encode(ByteBuffer buffer) {
+            if (checksumStale) updateChecksum();
+            buffer.put(this.bytes, this.offset, this.length);
+            for (int shift = 8 * (frameCheck.getLength() - 1); shift >= 0; shift -= 8) {
+                buffer.put((byte) (this.checksum >> shift));
             }
+        }
 
-            return ~sum & 0xffff;
+        private void changed() {
+            this.checksumStale = true;
         }
 
         public String toString() {
-            return new String(this.bytes);
+            return new String(this.bytes, this.offset, this.length);
         }
 
         public void setBytes(byte[] bytes) {
+            this.setBytes(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Uses a range of the array as the payload, without copying it.
+         */
+        public void setBytes(byte[] bytes, int offset, int length) {
             this.bytes = bytes;
-            updateChecksum();
+            this.offset = offset;
+            this.length = length;
+            this.changed();
         }
 
-        public void setChecksum16(int checksum16) {
-            this.checksum16 = checksum16;
+        public void setChecksum(int checksum) {
+            this.checksum = checksum;
+            this.checksumStale = false;
         }
 
         public int getLength() {
-            return this.bytes.length;
+            return this.length;
+        }
+
+        /**
+         * @return The payload, copied out if it is only part of a larger array.
+         */
+        public byte[] getBytes() {
+            if (this.offset == 0 && this.length == this.bytes.length) return this.bytes;
+            return Arrays.copyOfRange(this.bytes, this.offset, this.offset + this.length);
+        }
+
+        /**
+         * @return A read-only view of the payload.
+         */
+        public ByteBuffer getPayload() {
+            return ByteBuffer.wrap(this.bytes, this.offset, this.length).slice().asReadOnlyBuffer();
         }
 
         public byte[] getTransmittedBytes() {
-            return transmittedBytes;
+            byte[] bytes = new byte[this.length + frameCheck.getLength()];
+            this.encode(ByteBuffer.wrap(bytes));
+            return bytes;
         }
     }
 }
@@ -0,0 +1,51 @@
+package physical_network;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers standing for device names, for wires that only know their devices by name
+ * (see TwistedWirePair.connect()). Every name gets the next number the first time it is
+ * seen, and keeps it on every wire.
+ */
+class DeviceNames {
+
+    private static final ConcurrentHashMap<String, Integer> numbers = new ConcurrentHashMap<String, Integer>();
+
+    // Name for each number handed out, replaced by a larger copy when full.
+    private static volatile String[] names = new String[16];
+
+    private DeviceNames() {
+    }
+
+    /**
+     * @return Number of the device, handed out now if the name is new.
+     */
+    static int number(String device) {
+        Integer number = numbers.get(device);
+        if (number != null) return number;
+        return add(device);
+    }
+
+    /**
+     * @return Name of the device that was given the number.
+     */
+    static String name(int number) {
+        return names[number];
+    }
+
+    private static synchronized int add(String device) {
+        Integer number = numbers.get(device);
+        if (number != null) return number;
+
+        int next = numbers.size();
+        String[] current = names;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[next] = device;
+        names = current;
+        numbers.put(device, next);
+        return next;
+    }
+}
@@ -0,0 +1,333 @@
+package physical_network;
+
+/**
+ * Forward error correction applied to the bytes of a frame before they go onto the wire.
+ * <p>
+ * Both ends of a link must use the same code, the receiver decodes every frame before
+ * looking at it. Errors that can be corrected no longer cost a retransmission, in
+ * exchange for sending more bytes per frame.
+ */
+public enum ErrorCorrection {
+
+    /**
+     * Bytes are sent as they are.
+     */
+    NONE {
+        public byte[] encode(byte[] bytes) {
+            return bytes;
+        }
+
+        public int encodedLength(int length) {
+            return length;
+        }
+
+        public int decodedLength(int encodedLength) {
+            return encodedLength;
+        }
+
+        public int decode(byte[] encoded, int length, byte[] decoded) {
+            System.arraycopy(encoded, 0, decoded, 0, length);
+            return 0;
+        }
+    },
+
+    /**
+     * Extended Hamming(8,4): every nibble is sent as a byte, which corrects one flipped bit
+     * per nibble and detects two. Doubles the length of a frame.
+     */
+    HAMMING {
+        public byte[] encode(byte[] bytes) {
+            byte[] encoded = new byte[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                encoded[2 * i] = (byte) HAMMING_CODEWORDS[(bytes[i] >> 4) & 0x0F];
+                encoded[2 * i + 1] = (byte) HAMMING_CODEWORDS[bytes[i] & 0x0F];
+            }
+            return encoded;
+        }
+
+        public int encodedLength(int length) {
+            return length * 2;
+        }
+
+        public int decodedLength(int encodedLength) {
+            return encodedLength % 2 == 0 ? encodedLength / 2 : -1;
+        }
+
+        public int decode(byte[] encoded, int length, byte[] decoded) {
+            int corrected = 0;
+            for (int i = 0; i < length / 2; i++) {
+                int high = HAMMING_DECODE[encoded[2 * i] & 0xFF];
+                int low = HAMMING_DECODE[encoded[2 * i + 1] & 0xFF];
+                if (high < 0 || low < 0) return -1;
+
+                decoded[i] = (byte) (((high & 0x0F) << 4) | (low & 0x0F));
+                corrected += (high >> 4) + (low >> 4);
+            }
+            return corrected;
+        }
+    },
+
+    /**
+     * Reed-Solomon over GF(256) with RS_PARITY check bytes per block of up to 255 bytes,
+     * which corrects up to RS_PARITY / 2 corrupted bytes in each block.
+     */
+    REED_SOLOMON {
+        public byte[] encode(byte[] bytes) {
+            byte[] encoded = new byte[encodedLength(bytes.length)];
+            int out = 0;
+            for (int in = 0; in < bytes.length; in += RS_MAX_DATA) {
+                int length = Math.min(RS_MAX_DATA, bytes.length - in);
+                System.arraycopy(bytes, in, encoded, out, length);
+                reedSolomonEncode(encoded, out, length);
+                out += length + RS_PARITY;
+            }
+            return encoded;
+        }
+
+        public int encodedLength(int length) {
+            return length + RS_PARITY * ((length + RS_MAX_DATA - 1) / RS_MAX_DATA);
+        }
+
+        public int decodedLength(int encodedLength) {
+            int remainder = encodedLength % RS_BLOCK;
+            if (remainder > 0 && remainder <= RS_PARITY) return -1;
+            int blocks = encodedLength / RS_BLOCK + (remainder > 0 ? 1 : 0);
+            return encodedLength - RS_PARITY * blocks;
+        }
+
+        public int decode(byte[] encoded, int length, byte[] decoded) {
+            int corrected = 0;
+            int out = 0;
+            for (int in = 0; in < length; in += RS_BLOCK) {
+                int blockLength = Math.min(RS_BLOCK, length - in);
+                int blockCorrected = reedSolomonDecode(encoded, in, blockLength);
+                if (blockCorrected < 0) return -1;
+
+                corrected += blockCorrected;
+                System.arraycopy(encoded, in, decoded, out, blockLength - RS_PARITY);
+                out += blockLength - RS_PARITY;
+            }
+            return corrected;
+        }
+    };
+
+    // Number of Reed-Solomon check bytes per block, and the resulting block sizes.
+    private static final int RS_PARITY = 8;
+    private static final int RS_BLOCK = 255;
+    private static final int RS_MAX_DATA = RS_BLOCK - RS_PARITY;
+
+    // Codeword for each nibble, and the nibble plus number of corrected bits (shifted by 4)
+    // for each received byte, or -1 if it is too far from any codeword.
+    private static final int[] HAMMING_CODEWORDS = new int[16];
+    private static final int[] HAMMING_DECODE = new int[256];
+
+    // Exponent and logarithm tables for GF(256) with the primitive polynomial 0x11D.
+    private static final int[] GF_EXP = new int[512];
+    private static final int[] GF_LOG = new int[256];
+
+    // Reed-Solomon generator polynomial with roots 1, a, ..., a^(RS_PARITY-1), highest degree first.
+    private static final int[] RS_GENERATOR = new int[RS_PARITY + 1];
+
+    static {
+        for (int nibble = 0; nibble < 16; nibble++) {
+            int d1 = nibble >> 3 & 1, d2 = nibble >> 2 & 1, d3 = nibble >> 1 & 1, d4 = nibble & 1;
+            int p1 = d1 ^ d2 ^ d4, p2 = d1 ^ d3 ^ d4, p3 = d2 ^ d3 ^ d4;
+            int code = p1 << 6 | p2 << 5 | d1 << 4 | p3 << 3 | d2 << 2 | d3 << 1 | d4;
+            HAMMING_CODEWORDS[nibble] = code << 1 | Integer.bitCount(code) & 1;
+        }
+        for (int received = 0; received < 256; received++) {
+            HAMMING_DECODE[received] = -1;
+            for (int nibble = 0; nibble < 16; nibble++) {
+                int distance = Integer.bitCount(received ^ HAMMING_CODEWORDS[nibble]);
+                if (distance <= 1) HAMMING_DECODE[received] = distance << 4 | nibble;
+            }
+        }
+
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            GF_EXP[i] = x;
+            GF_LOG[x] = i;
+            x <<= 1;
+            if (x > 0xFF) x ^= 0x11D;
+        }
+        for (int i = 255; i < 512; i++) {
+            GF_EXP[i] = GF_EXP[i - 255];
+        }
+
+        RS_GENERATOR[0] = 1;
+        for (int root = 0; root < RS_PARITY; root++) {
+            // Multiply by (x - a^root), from the end so every coefficient still sees the old values.
+            for (int i = root + 1; i > 0; i--) {
+                RS_GENERATOR[i] ^= gfMultiply(RS_GENERATOR[i - 1], GF_EXP[root]);
+            }
+        }
+    }
+
+    /**
+     * Encodes bytes for transmission.
+     *
+     * @return The encoded bytes, which may be the array passed in if nothing needs to be added.
+     */
+    public abstract byte[] encode(byte[] bytes);
+
+    /**
+     * @return Number of bytes sent for the given number of bytes.
+     */
+    public abstract int encodedLength(int length);
+
+    /**
+     * @return Number of bytes that the given number of received bytes decode to,
+     * or -1 if no encoded frame has that length.
+     */
+    public abstract int decodedLength(int encodedLength);
+
+    /**
+     * Decodes received bytes, correcting errors where possible. The received
+     * bytes may be modified in the process.
+     *
+     * @param encoded Received bytes.
+     * @param decoded Array of decodedLength(encoded.length) bytes to decode into.
+     * @return Number of corrected errors (bits or bytes depending on the code),
+     * or -1 if there were too many errors to correct.
+     */
+    public int decode(byte[] encoded, byte[] decoded) {
+        return decode(encoded, encoded.length, decoded);
+    }
+
+    /**
+     * Decodes the first length received bytes, like decode(byte[], byte[]), into an
+     * array of at least decodedLength(length) bytes.
+     */
+    public abstract int decode(byte[] encoded, int length, byte[] decoded);
+
+    private static int gfMultiply(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return GF_EXP[GF_LOG[a] + GF_LOG[b]];
+    }
+
+    private static int gfDivide(int a, int b) {
+        if (a == 0) return 0;
+        return GF_EXP[GF_LOG[a] + 255 - GF_LOG[b]];
+    }
+
+    /*
+     * Appends RS_PARITY check bytes to the data at bytes[offset, offset + length),
+     * the remainder of dividing the data (shifted up) by the generator.
+     */
+    private static void reedSolomonEncode(byte[] bytes, int offset, int length) {
+        int parity = offset + length;
+        for (int i = offset; i < offset + length; i++) {
+            int feedback = (bytes[i] & 0xFF) ^ (bytes[parity] & 0xFF);
+            for (int j = 0; j < RS_PARITY - 1; j++) {
+                bytes[parity + j] = (byte) ((bytes[parity + j + 1] & 0xFF) ^ gfMultiply(feedback, RS_GENERATOR[j + 1]));
+            }
+            bytes[parity + RS_PARITY - 1] = (byte) gfMultiply(feedback, RS_GENERATOR[RS_PARITY]);
+        }
+    }
+
+    /*
+     * Corrects the block at bytes[offset, offset + length) in place using the syndromes,
+     * Berlekamp-Massey for the error locator, a Chien search for the error positions and
+     * Forney's formula for the error values. Polynomials are stored lowest degree first.
+     */
+    private static int reedSolomonDecode(byte[] bytes, int offset, int length) {
+        int[] syndromes = new int[RS_PARITY];
+        if (!calculateSyndromes(bytes, offset, length, syndromes)) return 0;
+
+        // Berlekamp-Massey.
+        int[] locator = new int[RS_PARITY + 1];
+        int[] previous = new int[RS_PARITY + 1];
+        int[] temp = new int[RS_PARITY + 1];
+        locator[0] = 1;
+        previous[0] = 1;
+        int errors = 0;
+        int shift = 1;
+        int previousDiscrepancy = 1;
+
+        for (int n = 0; n < RS_PARITY; n++) {
+            int discrepancy = syndromes[n];
+            for (int i = 1; i <= errors; i++) {
+                discrepancy ^= gfMultiply(locator[i], syndromes[n - i]);
+            }
+
+            if (discrepancy == 0) {
+                shift++;
+                continue;
+            }
+
+            int scale = gfDivide(discrepancy, previousDiscrepancy);
+            if (2 * errors <= n) {
+                System.arraycopy(locator, 0, temp, 0, locator.length);
+                for (int i = 0; i + shift <= RS_PARITY; i++) {
+                    locator[i + shift] ^= gfMultiply(scale, previous[i]);
+                }
+                errors = n + 1 - errors;
+                System.arraycopy(temp, 0, previous, 0, temp.length);
+                previousDiscrepancy = discrepancy;
+                shift = 1;
+            } else {
+                for (int i = 0; i + shift <= RS_PARITY; i++) {
+                    locator[i + shift] ^= gfMultiply(scale, previous[i]);
+                }
+                shift++;
+            }
+        }
+        if (2 * errors > RS_PARITY) return -1;
+
+        // Error evaluator: syndromes times locator, modulo x^RS_PARITY.
+        int[] evaluator = new int[RS_PARITY];
+        for (int i = 0; i < RS_PARITY; i++) {
+            for (int j = 0; j <= i && j <= errors; j++) {
+                evaluator[i] ^= gfMultiply(syndromes[i - j], locator[j]);
+            }
+        }
+
+        // Chien search over the positions in this block, byte i has degree length - 1 - i.
+        int found = 0;
+        for (int i = 0; i < length; i++) {
+            int power = length - 1 - i;
+            int inverse = GF_EXP[(255 - power) % 255];
+            if (evaluate(locator, errors, inverse) != 0) continue;
+
+            // Forney, the derivative only keeps the odd terms in GF(2^m).
+            int derivative = 0;
+            for (int j = 1; j <= errors; j += 2) {
+                derivative ^= gfMultiply(locator[j], GF_EXP[(GF_LOG[inverse] * (j - 1)) % 255]);
+            }
+            if (derivative == 0) return -1;
+
+            int value = gfMultiply(GF_EXP[power], gfDivide(evaluate(evaluator, RS_PARITY - 1, inverse), derivative));
+            bytes[offset + i] ^= (byte) value;
+            found++;
+        }
+        if (found != errors) return -1;
+
+        // Anything that still fails is beyond what the code can correct.
+        if (calculateSyndromes(bytes, offset, length, syndromes)) return -1;
+        return found;
+    }
+
+    /*
+     * @return True if any syndrome is non-zero, i.e. the block contains errors.
+     */
+    private static boolean calculateSyndromes(byte[] bytes, int offset, int length, int[] syndromes) {
+        boolean errors = false;
+        for (int j = 0; j < RS_PARITY; j++) {
+            int value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                value = gfMultiply(value, GF_EXP[j]) ^ (bytes[i] & 0xFF);
+            }
+            syndromes[j] = value;
+            errors |= value != 0;
+        }
+        return errors;
+    }
+
+    private static int evaluate(int[] polynomial, int degree, int x) {
+        int value = 0;
+        for (int i = degree; i >= 0; i--) {
+            value = gfMultiply(value, x) ^ polynomial[i];
+        }
+        return value;
+    }
+}
@@ -0,0 +1,34 @@
+package physical_network;
+
+/**
+ * How much a network card reports about what it is doing, from least to most important.
+ * A card reports the events at or above the level it is set to, see NetworkCard.setEventLevel().
+ */
+public enum EventLevel {
+
+    /**
+     * Every byte received, which slows a simulation down many times over.
+     */
+    TRACE,
+
+    /**
+     * Every frame and ACK sent and received.
+     */
+    DEBUG,
+
+    /**
+     * Retransmissions, duplicates, frames out of order and collisions, which the protocols
+     * deal with as a matter of course.
+     */
+    INFO,
+
+    /**
+     * Frames lost for good and frames that arrive damaged.
+     */
+    WARNING,
+
+    /**
+     * Nothing at all.
+     */
+    OFF
+}
@@ -0,0 +1,20 @@
+package physical_network;
+
+/**
+ * Receives the events network cards report, see NetworkCard.setEventSink().
+ * <p>
+ * Events are passed as plain numbers so that reporting them does not allocate. Sinks are
+ * called on the threads of the cards, from several cards at once if they share a sink, so
+ * they have to be thread-safe and should return quickly. RingBufferEventSink takes slow
+ * work, like formatting and writing, off those threads.
+ */
+public interface EventSink {
+
+    /**
+     * @param time   Clock time of the event, in milliseconds.
+     * @param device Number of the card reporting the event.
+     * @param peer   Number of the other card involved, or -1.
+     * @param value  Number that goes with the event, see CardEvent, or -1.
+     */
+    void event(long time, int device, CardEvent event, int peer, int value);
+}
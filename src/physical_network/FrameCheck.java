@@ -0,0 +1,161 @@
+package physical_network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame check sequences that can protect the payload of a data frame.
+ * <p>
+ * The one used by a frame is flagged in its header, so the receiver always knows
+ * how to check it. All implementations are table-driven and allocation-free.
+ */
+public enum FrameCheck {
+
+    /**
+     * 16-bit ones' complement sum, cheap but blind to many burst errors.
+     */
+    SUM16(0, 2) {
+        public int calculate(byte[] bytes, int offset, int length) {
+            int sum = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int localSum = sum + (int) bytes[i];
+                sum = (localSum & 0xFFFF) + (localSum >> 16);
+            }
+            return ~sum & 0xFFFF;
+        }
+    },
+
+    /**
+     * CRC-16-CCITT (polynomial 0x1021, initial value 0xFFFF), detects all bursts up to 16 bits.
+     */
+    CRC16_CCITT(1, 2) {
+        public int calculate(byte[] bytes, int offset, int length) {
+            int crc = 0xFFFF;
+            for (int i = offset; i < offset + length; i++) {
+                crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+            }
+            return crc;
+        }
+    },
+
+    /**
+     * CRC-32 as used by Ethernet, detects all bursts up to 32 bits.
+     * Processes 8 bytes per step using the slicing-by-8 tables.
+     */
+    CRC32(2, 4) {
+        public int calculate(byte[] bytes, int offset, int length) {
+            int crc = 0xFFFFFFFF;
+            int i = offset;
+            int end = offset + length;
+
+            while (end - i >= 8) {
+                int one = crc ^ ((bytes[i] & 0xFF)
+                        | (bytes[i + 1] & 0xFF) << 8
+                        | (bytes[i + 2] & 0xFF) << 16
+                        | (bytes[i + 3] & 0xFF) << 24);
+                int two = (bytes[i + 4] & 0xFF)
+                        | (bytes[i + 5] & 0xFF) << 8
+                        | (bytes[i + 6] & 0xFF) << 16
+                        | (bytes[i + 7] & 0xFF) << 24;
+                crc = CRC32_TABLES[7][one & 0xFF]
+                        ^ CRC32_TABLES[6][(one >>> 8) & 0xFF]
+                        ^ CRC32_TABLES[5][(one >>> 16) & 0xFF]
+                        ^ CRC32_TABLES[4][one >>> 24]
+                        ^ CRC32_TABLES[3][two & 0xFF]
+                        ^ CRC32_TABLES[2][(two >>> 8) & 0xFF]
+                        ^ CRC32_TABLES[1][(two >>> 16) & 0xFF]
+                        ^ CRC32_TABLES[0][two >>> 24];
+                i += 8;
+            }
+
+            while (i < end) {
+                crc = (crc >>> 8) ^ CRC32_TABLES[0][(crc ^ bytes[i++]) & 0xFF];
+            }
+            return ~crc;
+        }
+    };
+
+    /**
+     * Length in bytes of the longest frame check.
+     */
+    public static final int MAX_LENGTH = 4;
+
+    private static final FrameCheck[] VALUES = values();
+
+    private static final int[] CRC16_TABLE = new int[256];
+    private static final int[][] CRC32_TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[n] = crc & 0xFFFF;
+        }
+
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xEDB88320 : crc >>> 1;
+            }
+            CRC32_TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int slice = 1; slice < 8; slice++) {
+                int previous = CRC32_TABLES[slice - 1][n];
+                CRC32_TABLES[slice][n] = (previous >>> 8) ^ CRC32_TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    private final int id;
+    private final int length;
+
+    FrameCheck(int id, int length) {
+        this.id = id;
+        this.length = length;
+    }
+
+    /**
+     * Calculates the check value over a range of bytes.
+     *
+     * @return Check value, only the lowest getLength() bytes are used.
+     */
+    public abstract int calculate(byte[] bytes, int offset, int length);
+
+    /**
+     * Calculates the check value over a range of a buffer, given by absolute indices,
+     * without changing its position. Buffers without an accessible array are copied first.
+     */
+    public int calculate(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) return calculate(buffer.array(), buffer.arrayOffset() + offset, length);
+
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return calculate(bytes, 0, length);
+    }
+
+    /**
+     * @return Number identifying this check in the header flags.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Number of bytes the check value takes up at the end of the frame.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The check with the given number, or null if there is no such check.
+     */
+    public static FrameCheck fromId(int id) {
+        for (FrameCheck check : VALUES) {
+            if (check.id == id) return check;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+package physical_network;
+
+import java.util.Random;
+
+/**
+ * Compares the frame checks on throughput and on how many corrupted payloads they let through.
+ * <p>
+ * Throughput is measured over full 1500 byte payloads. Errors are injected as short bursts
+ * of flipped bits, the way thermal noise spikes tend to hit several consecutive pulses.
+ * <p>
+ * Usage: FrameCheckBenchmark [trials]
+ */
+public class FrameCheckBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1500;
+    private static final int THROUGHPUT_ROUNDS = 200000;
+    private static final int MAX_BURST_LENGTH = 24;
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        Random random = new Random(42);
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        random.nextBytes(payload);
+
+        System.out.println("check        MB/s   undetected/" + trials);
+        for (FrameCheck check : FrameCheck.values()) {
+            double throughput = measureThroughput(check, payload);
+            int undetected = countUndetectedErrors(check, trials, new Random(7));
+            System.out.printf("%-11s %6.0f   %d%n", check, throughput, undetected);
+        }
+    }
+
+    private static double measureThroughput(FrameCheck check, byte[] payload) {
+        // Warm up so that the JIT has compiled the loop before timing it.
+        int sink = 0;
+        for (int i = 0; i < THROUGHPUT_ROUNDS / 10; i++) {
+            sink += check.calculate(payload, 0, payload.length);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_ROUNDS; i++) {
+            sink += check.calculate(payload, 0, payload.length);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (sink == 42) System.out.print(""); // Keeps the loop from being optimised away.
+        return (double) THROUGHPUT_ROUNDS * payload.length / 1e6 / (elapsed / 1e9);
+    }
+
+    /*
+     * Flips a burst of bits in a short random payload and counts how often
+     * the check value comes out unchanged.
+     */
+    private static int countUndetectedErrors(FrameCheck check, int trials, Random random) {
+        byte[] payload = new byte[64];
+        int undetected = 0;
+
+        for (int trial = 0; trial < trials; trial++) {
+            random.nextBytes(payload);
+            int expected = check.calculate(payload, 0, payload.length);
+
+            int burstLength = 2 + random.nextInt(MAX_BURST_LENGTH - 1);
+            int start = random.nextInt(payload.length * 8 - burstLength);
+            for (int bit = start; bit < start + burstLength; bit++) {
+                // A burst starts and ends with a flipped bit, anything in between is random.
+                if (bit == start || bit == start + burstLength - 1 || random.nextBoolean()) {
+                    payload[bit / 8] ^= (byte) (0x80 >> (bit % 8));
+                }
+            }
+
+            if (check.calculate(payload, 0, payload.length) == expected) undetected++;
+        }
+        return undetected;
+    }
+}
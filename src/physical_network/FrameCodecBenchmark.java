@@ -0,0 +1,77 @@
+package physical_network;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares how much memory encoding and decoding a frame allocates, going through byte
+ * arrays the way the cards used to and going through a reused buffer the way they do now.
+ * <p>
+ * A round is one frame encoded, copied out of the receive buffer where the array way
+ * needs to, decoded, and its checksums verified.
+ * <p>
+ * Usage: FrameCodecBenchmark [rounds]
+ */
+public class FrameCodecBenchmark {
+
+    private static final int[] PAYLOAD_SIZES = {16, 256, 1500};
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.println("path     check        payload  bytes/frame  ns/frame");
+        for (FrameCheck check : new FrameCheck[]{FrameCheck.SUM16, FrameCheck.CRC32}) {
+            for (int size : PAYLOAD_SIZES) {
+                byte[] payload = new byte[size];
+                new Random(42).nextBytes(payload);
+                DataFrame frame = new DataFrame(payload, 2);
+                frame.setFrameCheck(check);
+
+                for (boolean buffers : new boolean[]{false, true}) {
+                    ByteBuffer buffer = ByteBuffer.allocate(frame.getEncodedLength());
+
+                    // Warm up so that the JIT has compiled the round before measuring it.
+                    int sink = 0;
+                    for (int i = 0; i < rounds / 10; i++) {
+                        sink += buffers ? viaBuffer(frame, buffer) : viaArrays(frame);
+                    }
+
+                    long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    long start = System.nanoTime();
+                    for (int i = 0; i < rounds; i++) {
+                        sink += buffers ? viaBuffer(frame, buffer) : viaArrays(frame);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+
+                    if (sink == 42) System.out.print(""); // Keeps the rounds from being optimised away.
+                    System.out.printf("%-8s %-11s %7d  %11d  %8.0f%n", buffers ? "buffer" : "arrays", check,
+                            size, allocated / rounds, (double) elapsed / rounds);
+                }
+            }
+        }
+    }
+
+    private static int viaArrays(DataFrame frame) {
+        byte[] bytes = frame.getTransmittedBytes();
+        DataFrame received = DataFrame.createFromReceivedBytes(Arrays.copyOf(bytes, bytes.length));
+        return verify(received);
+    }
+
+    private static int viaBuffer(DataFrame frame, ByteBuffer buffer) {
+        buffer.clear();
+        frame.encode(buffer);
+        buffer.flip();
+        return verify(DataFrame.decode(buffer));
+    }
+
+    private static int verify(DataFrame frame) {
+        if (frame == null || !frame.getHeader().verifyChecksum() || !frame.getData().verifyChecksum()) return 0;
+        return frame.getData().getLength();
+    }
+}
@@ -0,0 +1,54 @@
+package physical_network;
+
+/**
+ * Frames for the receiver to decode into, each with a buffer big enough for the longest
+ * frame, kept for reuse so that receiving does not allocate once the pool has warmed up.
+ * <p>
+ * Frames come back when whoever received them calls DataFrame.release(). Frames that are
+ * never released are left to the garbage collector and the pool makes new ones as needed,
+ * keeping no more than its capacity of released frames.
+ */
+class FramePool {
+
+    private final int bufferSize;
+    private final DataFrame[] free;
+    private int freeCount = 0;
+
+    /**
+     * @param bufferSize Bytes in the buffer of each frame.
+     * @param capacity   Most released frames kept for reuse.
+     */
+    public FramePool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new DataFrame[capacity];
+    }
+
+    /**
+     * @return A frame to decode into, which belongs to the caller until it is released.
+     */
+    public synchronized DataFrame take() {
+        if (freeCount == 0) return new DataFrame(this, bufferSize);
+
+        DataFrame frame = free[--freeCount];
+        free[freeCount] = null;
+        frame.setPooled(false);
+        return frame;
+    }
+
+    /*
+     * Takes back a frame handed out by take(). Frames released twice are only kept once.
+     */
+    synchronized void release(DataFrame frame) {
+        if (frame.isPooled() || freeCount == free.length) return;
+
+        frame.setPooled(true);
+        free[freeCount++] = frame;
+    }
+
+    /**
+     * @return Number of released frames waiting to be reused.
+     */
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+}
@@ -0,0 +1,153 @@
+package physical_network;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the steps a frame goes through between the card and the wire, so that a change to
+ * DataFrame or NetworkCard can be checked against the numbers from before it.
+ * <p>
+ * Every operation runs over payloads from 1 to 1500 bytes, except the ACK ones whose size
+ * is fixed. After a warm up, each is measured over a number of iterations and the median
+ * is reported along with the memory it allocates. Payloads come from a fixed seed, so runs
+ * of the same build go through the same bytes.
+ * <p>
+ * Usage: FramingBenchmark [rounds] [operation ...]
+ */
+public class FramingBenchmark {
+
+    private static final int[] PAYLOAD_SIZES = {1, 16, 64, 256, 1024, 1500};
+    private static final int ITERATIONS = 5;
+
+    /*
+     * Everything an operation needs for one payload size, made before timing starts.
+     */
+    private static class Fixture {
+        final byte[] payload;
+        final DataFrame frame;
+        final byte[] transmitted;
+        final NetworkCard.ACK ack = new NetworkCard.ACK(1, 2, 3);
+        final byte[] ackBytes = ack.getTransmittedBytes();
+        final byte[] stuffed;
+        final int stuffedLength;
+        final byte[] unstuffed;
+
+        Fixture(int size) {
+            payload = new byte[size];
+            new Random(42).nextBytes(payload);
+            frame = new DataFrame(payload, 2);
+            frame.setFrameCheck(FrameCheck.CRC32);
+            transmitted = frame.getTransmittedBytes();
+            stuffed = new byte[2 * transmitted.length + 1];
+            stuffedLength = ByteStuffing.stuff(transmitted, transmitted.length, stuffed);
+            unstuffed = new byte[transmitted.length];
+        }
+    }
+
+    private enum Operation {
+        CONSTRUCT(true) {
+            int run(Fixture f) {
+                return new DataFrame(f.payload, 2).getData().getLength();
+            }
+        },
+        TRANSMITTED_BYTES(true) {
+            int run(Fixture f) {
+                return f.frame.getTransmittedBytes().length;
+            }
+        },
+        FROM_RECEIVED_BYTES(true) {
+            int run(Fixture f) {
+                return DataFrame.createFromReceivedBytes(f.transmitted).getData().getLength();
+            }
+        },
+        HEADER_CHECKSUM(true) {
+            int run(Fixture f) {
+                f.frame.getHeader().updateChecksum();
+                return f.frame.getHeader().getLength();
+            }
+        },
+        DATA_CHECKSUM(true) {
+            int run(Fixture f) {
+                f.frame.getData().updateChecksum();
+                return f.frame.getData().getLength();
+            }
+        },
+        ACK_ENCODE(false) {
+            int run(Fixture f) {
+                return f.ack.getTransmittedBytes().length;
+            }
+        },
+        ACK_DECODE(false) {
+            int run(Fixture f) {
+                try {
+                    return NetworkCard.ACK.fromReceivedBytes(f.ackBytes).verifyChecksum() ? 1 : 0;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        },
+        STUFF(true) {
+            int run(Fixture f) {
+                return ByteStuffing.stuff(f.transmitted, f.transmitted.length, f.stuffed);
+            }
+        },
+        UNSTUFF(true) {
+            int run(Fixture f) {
+                return ByteStuffing.unstuff(f.stuffed, f.stuffedLength, f.unstuffed);
+            }
+        };
+
+        private final boolean sized;
+
+        Operation(boolean sized) {
+            this.sized = sized;
+        }
+
+        abstract int run(Fixture f);
+    }
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Operation[] operations = Operation.values();
+        if (args.length > 1) {
+            operations = new Operation[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                operations[i - 1] = Operation.valueOf(args[i].toUpperCase());
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.println("operation            payload  ns/op  bytes/op");
+        for (Operation operation : operations) {
+            for (int size : operation.sized ? PAYLOAD_SIZES : new int[]{0}) {
+                Fixture fixture = new Fixture(Math.max(size, 1));
+
+                // Warm up so that the JIT has compiled the operation before measuring it.
+                long sink = 0;
+                for (int i = 0; i < rounds / 10; i++) {
+                    sink += operation.run(fixture);
+                }
+
+                double[] times = new double[ITERATIONS];
+                long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < rounds; i++) {
+                        sink += operation.run(fixture);
+                    }
+                    times[iteration] = (double) (System.nanoTime() - start) / rounds;
+                }
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+                Arrays.sort(times);
+
+                if (sink == 42) System.out.print(""); // Keeps the rounds from being optimised away.
+                System.out.printf("%-20s %7s  %5.0f  %8d%n", operation, operation.sized ? size : "-",
+                        times[ITERATIONS / 2], allocated / ((long) rounds * ITERATIONS));
+            }
+        }
+    }
+}
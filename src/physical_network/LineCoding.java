@@ -0,0 +1,118 @@
+package physical_network;
+
+/**
+ * Ways of turning the bits of a byte into voltages on the wire.
+ * <p>
+ * Every byte is still preceded by a low preamble and a high start pulse, the line coding
+ * only decides what follows. A byte is sent as a number of symbols, each holding one
+ * voltage, and decoded from one sample taken in the middle of every symbol.
+ * Both ends of a link must use the same coding.
+ */
+public enum LineCoding {
+
+    /**
+     * One bit per pulse, high for 1 and low for 0.
+     */
+    NRZ(8, 1) {
+        public double getVoltage(byte value, int symbol, double low, double high) {
+            return ((value << symbol) & 0x80) != 0 ? high : low;
+        }
+
+        public byte decode(double[] samples, double low, double high) {
+            double threshold = (low + 2.0 * high) / 3;
+            int value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 1 | (samples[i] > threshold ? 1 : 0);
+            }
+            return (byte) value;
+        }
+    },
+
+    /**
+     * One bit per pulse, low then high for 1 and high then low for 0 (as in IEEE 802.3).
+     * There is a transition in the middle of every bit, and the bit is decoded by comparing
+     * both halves rather than against a fixed threshold, so a constant offset on the wire
+     * does no harm.
+     */
+    MANCHESTER(16, 2) {
+        public double getVoltage(byte value, int symbol, double low, double high) {
+            boolean one = ((value << (symbol / 2)) & 0x80) != 0;
+            boolean firstHalf = symbol % 2 == 0;
+            return one == firstHalf ? low : high;
+        }
+
+        public byte decode(double[] samples, double low, double high) {
+            int value = 0;
+            for (int i = 0; i < 16; i += 2) {
+                value = value << 1 | (samples[i + 1] > samples[i] ? 1 : 0);
+            }
+            return (byte) value;
+        }
+    },
+
+    /**
+     * Two bits per pulse using four evenly spaced voltages, Gray coded so that mistaking a
+     * symbol for a neighbouring one only costs a single bit. Needs half the pulses of NRZ
+     * for the bits of a byte, 9 rather than 13 with the preamble and start pulse sent before
+     * it, but neighbouring levels are three times closer together.
+     */
+    PAM4(4, 1) {
+        public double getVoltage(byte value, int symbol, double low, double high) {
+            int bits = (value >> (6 - 2 * symbol)) & 0x03;
+            return low + GRAY_TO_LEVEL[bits] * (high - low) / 3;
+        }
+
+        public byte decode(double[] samples, double low, double high) {
+            double step = (high - low) / 3;
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                // Thresholds halfway between neighbouring levels.
+                int level;
+                if (samples[i] < low + step / 2) level = 0;
+                else if (samples[i] < low + 3 * step / 2) level = 1;
+                else if (samples[i] < low + 5 * step / 2) level = 2;
+                else level = 3;
+                value = value << 2 | LEVEL_TO_GRAY[level];
+            }
+            return (byte) value;
+        }
+    };
+
+    // Level (0 lowest to 3 highest) used for each pair of bits, and the other way around.
+    private static final int[] GRAY_TO_LEVEL = {0, 1, 3, 2};
+    private static final int[] LEVEL_TO_GRAY = {0, 1, 3, 2};
+
+    private final int symbolsPerByte;
+    private final int symbolsPerPulse;
+
+    LineCoding(int symbolsPerByte, int symbolsPerPulse) {
+        this.symbolsPerByte = symbolsPerByte;
+        this.symbolsPerPulse = symbolsPerPulse;
+    }
+
+    /**
+     * @return Voltage to put on the wire for the given symbol of a byte, counting from 0.
+     */
+    public abstract double getVoltage(byte value, int symbol, double low, double high);
+
+    /**
+     * Decodes a byte from samples taken in the middle of each of its symbols.
+     *
+     * @param samples At least getSymbolsPerByte() voltages.
+     */
+    public abstract byte decode(double[] samples, double low, double high);
+
+    /**
+     * @return Number of symbols making up a byte.
+     */
+    public int getSymbolsPerByte() {
+        return symbolsPerByte;
+    }
+
+    /**
+     * @return Duration of one symbol for the given pulse width.
+     */
+    public int getSymbolWidth(int pulseWidth) {
+        return pulseWidth / symbolsPerPulse;
+    }
+}
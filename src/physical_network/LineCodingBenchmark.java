@@ -0,0 +1,109 @@
+package physical_network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the effective bit rate of each line coding and framing under thermal noise.
+ * <p>
+ * Two cards run stop-and-wait over a simulated wire, one sending a stream of frames
+ * to the other, and only payload bytes delivered intact count towards the result.
+ * All combinations run side by side (see Simulation.Run).
+ * <p>
+ * Usage: LineCodingBenchmark [simulated seconds] [noise level in volts...]
+ */
+public class LineCodingBenchmark {
+
+    private static final int PAYLOAD_SIZE = 32;
+
+    public static void main(String[] args) throws InterruptedException {
+        long duration = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 600000;
+        double[] noiseLevels = {0.0, 2.0, 3.5};
+        if (args.length > 1) {
+            noiseLevels = new double[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                noiseLevels[i - 1] = Double.parseDouble(args[i]);
+            }
+        }
+
+        List<Run> runs = new ArrayList<Run>();
+        for (LineCoding coding : LineCoding.values()) {
+            for (boolean synchronous : new boolean[]{false, true}) {
+                for (double noiseLevel : noiseLevels) {
+                    Run run = new Run(coding, synchronous, noiseLevel, duration);
+                    run.start();
+                    runs.add(run);
+                }
+            }
+        }
+
+        System.out.println("coding      framing  noise(V)  frames   bits/s");
+        for (Run run : runs) {
+            run.join();
+            System.out.printf("%-11s %-7s %9.1f  %6d  %7.2f%n", run.coding, run.synchronous ? "sync" : "async",
+                    run.noiseLevel, run.deliveredFrames,
+                    run.deliveredBytes * 8 / (duration / 1000.0));
+        }
+        System.exit(0);
+    }
+
+    private static class Run extends Simulation.Run {
+        private final LineCoding coding;
+        private final boolean synchronous;
+        private final double noiseLevel;
+
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private long deliveredFrames;
+        private long deliveredBytes;
+
+        private Run(LineCoding coding, boolean synchronous, double noiseLevel, long duration) {
+            super(duration);
+            this.coding = coding;
+            this.synchronous = synchronous;
+            this.noiseLevel = noiseLevel;
+        }
+
+        protected void setUp() {
+            TwistedWirePair wire = new MyTwistedWirePair(clock);
+
+            final NetworkCard sender = new NetworkCard(1, wire);
+            NetworkCard receiver = new NetworkCard(2, wire);
+            for (NetworkCard card : new NetworkCard[]{sender, receiver}) {
+                card.setLineCoding(coding);
+                card.setSynchronousFraming(synchronous);
+                card.setFrameCheck(FrameCheck.CRC32);
+                Simulation.init(card);
+            }
+
+            final byte[] payload = Simulation.payload(PAYLOAD_SIZE);
+            final String expected = new String(payload);
+            Simulation.startDevice(clock, new Simulation.Task() {
+                public void run() throws InterruptedException {
+                    while (true) sender.send(new DataFrame(payload.clone(), 2));
+                }
+            });
+            Simulation.startSink(clock, receiver, new Simulation.Receiver() {
+                public void received(DataFrame frame) {
+                    if (frame.getData().getLength() == PAYLOAD_SIZE && frame.toString().equals(expected)) {
+                        frames.incrementAndGet();
+                        bytes.addAndGet(PAYLOAD_SIZE);
+                    }
+                }
+            });
+
+            if (noiseLevel > 0) {
+                ThermalNoise noise = new ThermalNoise("Thermal Noise", noiseLevel, wire);
+                noise.setDaemon(true);
+                noise.start();
+            }
+        }
+
+        protected void finish() {
+            deliveredFrames = frames.get();
+            deliveredBytes = bytes.get();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package physical_network;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts a steady load on a wire shared by a number of network cards and reports what gets
+ * through, one row per combination of the options given, as CSV or JSON.
+ * <p>
+ * Every card sends messages to the next card along. A message carries the simulated time
+ * at which it was due to be sent, so the receiving end can tell how long it took to arrive,
+ * waiting in the output queue included. Only messages delivered intact count towards the
+ * goodput. Each run has a simulated clock of its own and stops after the given duration.
+ * <p>
+ * Usage: LoadTest [--cards 2] [--size 64] [--rate 0] [--noise 0.0] [--duration 3600]
+ * [--arq SELECTIVE_REPEAT] [--window 4] [--access CSMA_CD] [--slot 50000] [--ack-delay 0]
+ * [--seed 42] [--format csv|json]
+ * <p>
+ * Cards, size, rate, noise and ACK delay take comma separated lists. The rate is in messages per
+ * simulated second per card, 0 sends as fast as the cards take them. The duration is in
+ * simulated seconds. Sizes above the fragment size are sent as fragmented messages. The
+ * slot time, in milliseconds, is only used with TDMA and has to fit the largest frame.
+ * The ACK delay, in milliseconds, is passed to NetworkCard.setAckDelay(). With two cards
+ * traffic goes both ways, so ACKs can ride on data frames.
+ */
+public class LoadTest {
+
+    // Room for the time the message was due to be sent.
+    private static final int MIN_SIZE = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] cardCounts = {2};
+        int[] sizes = {64};
+        double[] rates = {0};
+        double[] noiseLevels = {0.0};
+        long duration = 3600;
+        NetworkCard.ArqMode arqMode = NetworkCard.ArqMode.SELECTIVE_REPEAT;
+        int windowSize = 4;
+        MediumAccess access = MediumAccess.CSMA_CD;
+        int slotTime = 50000;
+        int[] ackDelays = {0};
+        long seed = 42;
+        boolean json = false;
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) throw new IllegalArgumentException("No value given for " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--cards": cardCounts = parseInts(value); break;
+                case "--size": sizes = parseInts(value); break;
+                case "--rate": rates = parseDoubles(value); break;
+                case "--noise": noiseLevels = parseDoubles(value); break;
+                case "--duration": duration = Long.parseLong(value); break;
+                case "--arq": arqMode = NetworkCard.ArqMode.valueOf(value); break;
+                case "--window": windowSize = Integer.parseInt(value); break;
+                case "--access": access = MediumAccess.valueOf(value); break;
+                case "--slot": slotTime = Integer.parseInt(value); break;
+                case "--ack-delay": ackDelays = parseInts(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--format": json = parseFormat(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        for (int cards : cardCounts) {
+            if (cards < 2) throw new IllegalArgumentException("At least 2 cards are needed: " + cards);
+        }
+        for (int size : sizes) {
+            if (size < MIN_SIZE) throw new IllegalArgumentException("Messages must be at least " + MIN_SIZE + " bytes: " + size);
+        }
+        if (duration < 1) throw new IllegalArgumentException("Duration must be at least 1 s: " + duration);
+
+        PrintStream out = System.out;
+        out.println(json ? "[" : Result.CSV_HEADER);
+        boolean first = true;
+        for (int cards : cardCounts) {
+            for (int size : sizes) {
+                for (double rate : rates) {
+                    for (double noise : noiseLevels) {
+                        for (int ackDelay : ackDelays) {
+                            Run run = new Run(cards, size, rate, noise, duration * 1000,
+                                    arqMode, windowSize, access, slotTime, ackDelay, seed);
+                            Result result = run.measure();
+                            if (json) {
+                                out.println((first ? "" : ",\n") + result.toJson());
+                            } else {
+                                out.println(result.toCsv());
+                            }
+                            out.flush();
+                            first = false;
+                        }
+                    }
+                }
+            }
+        }
+        if (json) out.println("]");
+    }
+
+    private static int[] parseInts(String list) {
+        String[] values = list.split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = Integer.parseInt(values[i].trim());
+        }
+        return ints;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] values = list.split(",");
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = Double.parseDouble(values[i].trim());
+        }
+        return doubles;
+    }
+
+    private static boolean parseFormat(String format) {
+        if (format.equals("json")) return true;
+        if (format.equals("csv")) return false;
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+
+    /*
+     * One combination of options, run on a clock and wire of its own.
+     */
+    private static class Run {
+        private final int cardCount;
+        private final int size;
+        private final double rate;
+        private final double noise;
+        private final long duration;
+        private final NetworkCard.ArqMode arqMode;
+        private final int windowSize;
+        private final MediumAccess access;
+        private final int slotTime;
+        private final int ackDelay;
+        private final long seed;
+
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong damaged = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private Run(int cardCount, int size, double rate, double noise, long duration,
+                    NetworkCard.ArqMode arqMode, int windowSize, MediumAccess access, int slotTime, int ackDelay,
+                    long seed) {
+            this.cardCount = cardCount;
+            this.size = size;
+            this.rate = rate;
+            this.noise = noise;
+            this.duration = duration;
+            this.arqMode = arqMode;
+            this.windowSize = windowSize;
+            this.access = access;
+            this.slotTime = slotTime;
+            this.ackDelay = ackDelay;
+            this.seed = seed;
+        }
+
+        private Result measure() throws InterruptedException {
+            final Clock clock = new SimulatedClock();
+            TwistedWirePair wire = new MyTwistedWirePair(clock);
+
+            NetworkCard[] cards = new NetworkCard[cardCount];
+            for (int i = 0; i < cardCount; i++) {
+                cards[i] = new NetworkCard(i + 1, wire, arqMode, windowSize);
+                cards[i].setMediumAccess(access);
+                if (access == MediumAccess.TDMA) cards[i].setTimeSlot(i, cardCount, slotTime);
+                cards[i].setAckDelay(ackDelay);
+                Simulation.init(cards[i]);
+            }
+
+            ThermalNoise thermalNoise = null;
+            if (noise > 0) {
+                thermalNoise = new ThermalNoise("Thermal Noise", noise, wire);
+                thermalNoise.setSeed(seed);
+                thermalNoise.start();
+            }
+
+            Thread[] threads = new Thread[2 * cardCount];
+            for (int i = 0; i < cardCount; i++) {
+                threads[2 * i] = new Source(clock, cards[i], (i + 1) % cardCount + 1);
+                threads[2 * i + 1] = new Sink(clock, cards[i]);
+            }
+            for (Thread thread : threads) {
+                clock.register(thread);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            clock.sleep(duration);
+
+            // Take the figures before stopping anything, the cards keep counting until then.
+            Result result = new Result(this, cards);
+
+            for (Thread thread : threads) {
+                thread.interrupt();
+                thread.join();
+            }
+            for (NetworkCard card : cards) {
+                card.shutdown();
+            }
+            if (thermalNoise != null) {
+                thermalNoise.interrupt();
+                thermalNoise.join();
+            }
+            return result;
+        }
+
+        /*
+         * Sends messages at the run's rate, or as fast as the card takes them.
+         */
+        private class Source extends Thread {
+            private final Clock clock;
+            private final NetworkCard card;
+            private final int destination;
+
+            private Source(Clock clock, NetworkCard card, int destination) {
+                this.clock = clock;
+                this.card = card;
+                this.destination = destination;
+            }
+
+            public void run() {
+                try {
+                    long interval = rate > 0 ? Math.max(1, Math.round(1000 / rate)) : 0;
+                    long due = clock.currentTimeMillis();
+                    while (true) {
+                        if (interval > 0) {
+                            clock.sleep(due - clock.currentTimeMillis());
+                        } else {
+                            due = clock.currentTimeMillis();
+                        }
+                        card.sendMessage(createMessage(due), destination);
+                        sent.incrementAndGet();
+                        due += interval;
+                    }
+                } catch (InterruptedException except) {
+                    // Done.
+                } finally {
+                    clock.unregister(this);
+                }
+            }
+        }
+
+        /*
+         * Takes delivered messages off the card and checks them.
+         */
+        private class Sink extends Thread {
+            private final Clock clock;
+            private final NetworkCard card;
+
+            private Sink(Clock clock, NetworkCard card) {
+                this.clock = clock;
+                this.card = card;
+            }
+
+            public void run() {
+                try {
+                    while (true) {
+                        DataFrame frame = card.receive();
+                        long due = checkMessage(frame.getData().getBytes());
+                        frame.release();
+
+                        if (due < 0) {
+                            damaged.incrementAndGet();
+                        } else if (clock.currentTimeMillis() <= duration) {
+                            delivered.incrementAndGet();
+                            latency.record(clock.currentTimeMillis() - due);
+                        }
+                    }
+                } catch (InterruptedException except) {
+                    // Done.
+                } finally {
+                    clock.unregister(this);
+                }
+            }
+        }
+
+        /*
+         * The time the message was due to be sent, followed by a pattern that depends on it.
+         */
+        private byte[] createMessage(long due) {
+            byte[] message = new byte[size];
+            for (int i = 0; i < MIN_SIZE; i++) {
+                message[i] = (byte) (due >> (56 - 8 * i));
+            }
+            for (int i = MIN_SIZE; i < size; i++) {
+                message[i] = (byte) (due + i);
+            }
+            return message;
+        }
+
+        /*
+         * @return The time the message was due to be sent, or -1 if it did not arrive intact.
+         */
+        private long checkMessage(byte[] message) {
+            if (message.length != size) return -1;
+
+            long due = 0;
+            for (int i = 0; i < MIN_SIZE; i++) {
+                due = (due << 8) | (message[i] & 0xFF);
+            }
+            for (int i = MIN_SIZE; i < size; i++) {
+                if (message[i] != (byte) (due + i)) return -1;
+            }
+            return due < 0 || due > duration ? -1 : due;
+        }
+    }
+
+    /*
+     * Figures for one run, with latencies in simulated milliseconds.
+     */
+    private static class Result {
+        private static final String CSV_HEADER = "cards,size,rate,noise,arq,window,access,ack_delay_ms,duration_s,"
+                + "messages_sent,messages_delivered,messages_damaged,goodput_bps,"
+                + "frames_sent,frames_received,acks_sent,acks_piggybacked,retransmissions,give_ups,corrupted_frames,"
+                + "latency_mean_ms,latency_p50_ms,latency_p90_ms,latency_p99_ms,latency_max_ms";
+
+        private final Object[] values;
+
+        private Result(Run run, NetworkCard[] cards) {
+            long framesSent = 0, framesReceived = 0, acksSent = 0, acksPiggybacked = 0;
+            long retransmissions = 0, giveUps = 0, corruptedFrames = 0;
+            for (NetworkCard card : cards) {
+                CardMetrics metrics = card.getMetrics();
+                framesSent += metrics.getFramesSent();
+                framesReceived += metrics.getFramesReceived();
+                acksSent += metrics.getAcksSent();
+                acksPiggybacked += metrics.getAcksPiggybacked();
+                retransmissions += metrics.getRetransmissions();
+                giveUps += metrics.getGiveUps();
+                corruptedFrames += metrics.getCorruptedFrames();
+            }
+
+            double seconds = run.duration / 1000.0;
+            LatencyHistogram latency = run.latency;
+            this.values = new Object[]{
+                    run.cardCount, run.size, run.rate, run.noise, run.arqMode, run.windowSize, run.access,
+                    run.ackDelay, run.duration / 1000, run.sent.get(), run.delivered.get(), run.damaged.get(),
+                    Math.round(run.delivered.get() * run.size * 8 / seconds * 100) / 100.0,
+                    framesSent, framesReceived, acksSent, acksPiggybacked, retransmissions, giveUps, corruptedFrames,
+                    Math.round(latency.getMean()), latency.getPercentile(50),
+                    latency.getPercentile(90), latency.getPercentile(99), latency.getMax()
+            };
+        }
+
+        private String toCsv() {
+            StringBuilder csv = new StringBuilder();
+            for (Object value : values) {
+                if (csv.length() > 0) csv.append(',');
+                csv.append(value);
+            }
+            return csv.toString();
+        }
+
+        private String toJson() {
+            String[] names = CSV_HEADER.split(",");
+            StringBuilder json = new StringBuilder("  {");
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) json.append(", ");
+                json.append('"').append(names[i]).append("\": ");
+                if (values[i] instanceof Enum) {
+                    json.append('"').append(values[i]).append('"');
+                } else {
+                    json.append(values[i]);
+                }
+            }
+            return json.append('}').toString();
+        }
+    }
+}
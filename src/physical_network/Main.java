@@ -24,6 +24,9 @@ package physical_network;
  * A source for thermal noise can also be connected to the wire which simulates
  * noise on the network to see how robust the transmission process is to noise.
  * 
+ * Run with the argument "--simulated" to use a simulated clock instead of real time,
+ * the exchange then completes as fast as possible but the oscilloscope is not shown.
+ * 
  * @author kevin-b
  */
 public class Main {
@@ -33,8 +36,12 @@ public class Main {
      */
     public static void main(String[] args) throws InterruptedException {
 
+    	// Real time by default so that the oscilloscope can be watched.
+        boolean simulated = args.length > 0 && args[0].equals("--simulated");
+        Clock clock = simulated ? new SimulatedClock() : new RealTimeClock();
+
     	// Shared twisted pair wire.
-        TwistedWirePair wire = new MyTwistedWirePair();
+        TwistedWirePair wire = new MyTwistedWirePair(clock);
 
         // Set network card 1 running connected to the shared wire.
         NetworkCard networkCard1 = new NetworkCard(1, wire);
@@ -50,8 +57,10 @@ public class Main {
         thermalNoise.start();
 
         // Set oscilloscope monitoring the wire voltage.
-        Oscilloscope oscilloscope = new Oscilloscope("Oscilloscope", wire);
-        oscilloscope.start();
+        if (!simulated) {
+            Oscilloscope oscilloscope = new Oscilloscope("Oscilloscope", wire);
+            oscilloscope.start();
+        }
 
         // Send a data frame across the link from network card 1 to network card 2.
         DataFrame myMessage = new DataFrame("Hello World", 2);
@@ -70,7 +79,8 @@ public class Main {
         while (true) {
         	
         	DataFrame receivedData = networkCard2.receive();
-        	System.out.println("\n *** RECEIVED: " + receivedData + "\n");
+        	System.out.println("\n *** RECEIVED: " + receivedData + " (at " + clock.currentTimeMillis() + " ms)\n");
+        	receivedData.release();
         	
         }
         
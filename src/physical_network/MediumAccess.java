@@ -0,0 +1,31 @@
+package physical_network;
+
+/**
+ * Ways for the network cards attached to one wire to share it.
+ * All cards on a wire should use the same one.
+ */
+public enum MediumAccess {
+
+    /**
+     * Every card sends whenever it has something to send. Frames sent at the same time
+     * add up on the wire and are lost, and are only recovered by the ARQ timeouts.
+     */
+    NONE,
+
+    /**
+     * Carrier sense multiple access with collision detection, as in classic Ethernet.
+     * A card waits for the wire to go quiet before sending, and keeps comparing the wire
+     * with the voltage it drives itself while sending. On a collision it stops, sends a
+     * frame delimiter as a jam signal so that receivers drop what they have got so far,
+     * and waits a random number of slot times before trying again. The range of that
+     * number doubles with every collision of the same frame (binary exponential backoff).
+     */
+    CSMA_CD,
+
+    /**
+     * Time division multiple access. Time is split into a repeating cycle of fixed slots and
+     * every card only sends within its own slot (see NetworkCard.setTimeSlot()), so cards
+     * never collide and no frame waits for longer than a cycle before it is sent.
+     */
+    TDMA
+}
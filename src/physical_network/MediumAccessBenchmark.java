@@ -0,0 +1,112 @@
+package physical_network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the aggregate goodput of a wire shared by a growing number of network cards,
+ * for each way of sharing it.
+ * <p>
+ * Every card keeps sending frames to the next card along, so all cards compete for the
+ * wire all the time. Only payload bytes delivered intact count towards the goodput.
+ * All combinations run side by side (see Simulation.Run).
+ * <p>
+ * Usage: MediumAccessBenchmark [simulated seconds] [number of cards...]
+ */
+public class MediumAccessBenchmark {
+
+    private static final int PAYLOAD_SIZE = 16;
+
+    // TDMA: long enough for an ACK and a data frame of PAYLOAD_SIZE bytes.
+    private static final int SLOT_TIME = 50000;
+
+    public static void main(String[] args) throws InterruptedException {
+        long duration = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 1800000;
+        int[] cardCounts = {2, 4, 8, 16};
+        if (args.length > 1) {
+            cardCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                cardCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<Run> runs = new ArrayList<Run>();
+        for (MediumAccess access : MediumAccess.values()) {
+            for (int cards : cardCounts) {
+                Run run = new Run(access, cards, duration);
+                run.start();
+                runs.add(run);
+            }
+        }
+
+        System.out.println("access    cards  frames  collisions  aborted   bits/s");
+        for (Run run : runs) {
+            run.join();
+            System.out.printf("%-9s %5d  %6d  %10d  %7d  %7.2f%n", run.access, run.cardCount,
+                    run.deliveredFrames, run.collisions, run.aborted,
+                    run.deliveredBytes * 8 / (duration / 1000.0));
+        }
+        System.exit(0);
+    }
+
+    private static class Run extends Simulation.Run {
+        private final MediumAccess access;
+        private final int cardCount;
+        private final NetworkCard[] cards;
+
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private long deliveredFrames;
+        private long deliveredBytes;
+        private long collisions;
+        private long aborted;
+
+        private Run(MediumAccess access, int cardCount, long duration) {
+            super(duration);
+            this.access = access;
+            this.cardCount = cardCount;
+            this.cards = new NetworkCard[cardCount];
+        }
+
+        protected void setUp() {
+            TwistedWirePair wire = new MyTwistedWirePair(clock);
+            for (int i = 0; i < cardCount; i++) {
+                cards[i] = new NetworkCard(i + 1, wire);
+                cards[i].setMediumAccess(access);
+                if (access == MediumAccess.TDMA) cards[i].setTimeSlot(i, cardCount, SLOT_TIME);
+                Simulation.init(cards[i]);
+            }
+
+            final byte[] payload = Simulation.payload(PAYLOAD_SIZE);
+            final String expected = new String(payload);
+            for (int i = 0; i < cardCount; i++) {
+                final NetworkCard card = cards[i];
+                final int next = (i + 1) % cardCount + 1;
+                Simulation.startDevice(clock, new Simulation.Task() {
+                    public void run() throws InterruptedException {
+                        while (true) card.send(new DataFrame(payload.clone(), next));
+                    }
+                });
+                Simulation.startSink(clock, card, new Simulation.Receiver() {
+                    public void received(DataFrame frame) {
+                        if (frame.getData().getLength() == PAYLOAD_SIZE && frame.toString().equals(expected)) {
+                            frames.incrementAndGet();
+                            bytes.addAndGet(PAYLOAD_SIZE);
+                        }
+                    }
+                });
+            }
+        }
+
+        protected void finish() {
+            deliveredFrames = frames.get();
+            deliveredBytes = bytes.get();
+            for (NetworkCard card : cards) {
+                collisions += card.getCollisions();
+                aborted += card.getAbortedFrames();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package physical_network;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Measures how long frames take from send() to being received, for each card on a wire
+ * shared by a growing number of cards, with CSMA/CD and with TDMA.
+ * <p>
+ * Every card sends frames to the next card along at random times, on average one frame
+ * every other TDMA cycle, so the wire is busy but not overloaded. Each frame carries the
+ * time it was sent. The cards use synchronous PAM-4 framing to keep frames short.
+ * All combinations run side by side (see Simulation.Run).
+ * <p>
+ * Usage: MediumAccessLatencyBenchmark [TDMA cycles] [number of cards...]
+ */
+public class MediumAccessLatencyBenchmark {
+
+    // The payload is the time the frame was sent, as a fixed number of digits.
+    private static final int PAYLOAD_SIZE = 10;
+
+    // TDMA: long enough for an ACK and a data frame of PAYLOAD_SIZE bytes.
+    private static final int SLOT_TIME = 16000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int[] cardCounts = {2, 8, 32};
+        if (args.length > 1) {
+            cardCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                cardCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<Run> runs = new ArrayList<Run>();
+        for (MediumAccess access : new MediumAccess[]{MediumAccess.CSMA_CD, MediumAccess.TDMA}) {
+            for (int cards : cardCounts) {
+                Run run = new Run(access, cards, (long) cycles * cards * SLOT_TIME);
+                run.start();
+                runs.add(run);
+            }
+        }
+
+        System.out.println("access    cards  card  frames   p50(s)   p99(s)   max(s)");
+        for (Run run : runs) {
+            run.join();
+            for (int card = 0; card < run.cardCount; card++) {
+                report(System.out, run, Integer.toString(card + 1), run.latencies[card]);
+            }
+            report(System.out, run, "all", run.allLatencies());
+        }
+        System.exit(0);
+    }
+
+    private static void report(PrintStream out, Run run, String card, long[] latencies) {
+        Arrays.sort(latencies);
+        if (latencies.length == 0) {
+            out.printf("%-9s %5d  %4s  %6d%n", run.access, run.cardCount, card, 0);
+            return;
+        }
+        out.printf("%-9s %5d  %4s  %6d  %7.1f  %7.1f  %7.1f%n", run.access, run.cardCount, card,
+                latencies.length, latencies[latencies.length / 2] / 1000.0,
+                latencies[latencies.length * 99 / 100] / 1000.0, latencies[latencies.length - 1] / 1000.0);
+    }
+
+    private static class Run extends Simulation.Run {
+        private final MediumAccess access;
+        private final int cardCount;
+
+        // Latencies of the frames received from each card, in milliseconds.
+        private final List<List<Long>> received = new ArrayList<List<Long>>();
+
+        // Latencies at the end of the simulated duration.
+        private long[][] latencies;
+
+        private Run(MediumAccess access, int cardCount, long duration) {
+            super(duration);
+            this.access = access;
+            this.cardCount = cardCount;
+            for (int i = 0; i < cardCount; i++) {
+                received.add(new ArrayList<Long>());
+            }
+        }
+
+        protected void setUp() {
+            TwistedWirePair wire = new MyTwistedWirePair(clock);
+
+            NetworkCard[] cards = new NetworkCard[cardCount];
+            for (int i = 0; i < cardCount; i++) {
+                cards[i] = new NetworkCard(i + 1, wire);
+                cards[i].setMediumAccess(access);
+                cards[i].setLineCoding(LineCoding.PAM4);
+                cards[i].setSynchronousFraming(true);
+                if (access == MediumAccess.TDMA) cards[i].setTimeSlot(i, cardCount, SLOT_TIME);
+                Simulation.init(cards[i]);
+            }
+
+            // Every other cycle on average, the same for both ways of sharing the wire.
+            final long meanInterval = 2L * cardCount * SLOT_TIME;
+
+            for (int i = 0; i < cardCount; i++) {
+                final NetworkCard card = cards[i];
+                final int next = (i + 1) % cardCount + 1;
+                final SplittableRandom random = new SplittableRandom(i);
+                Simulation.startDevice(clock, new Simulation.Task() {
+                    public void run() throws InterruptedException {
+                        while (true) {
+                            clock.sleep(random.nextLong(2 * meanInterval));
+                            String sent = String.format("%0" + PAYLOAD_SIZE + "d", clock.currentTimeMillis());
+                            card.send(new DataFrame(sent, next));
+                        }
+                    }
+                });
+                Simulation.startSink(clock, card, new Simulation.Receiver() {
+                    public void received(DataFrame frame) {
+                        int source = frame.getHeader().getSource();
+                        String sent = frame.toString();
+                        // Skip frames that got through corrupted, the frame check is not perfect.
+                        if (source < 1 || source > cardCount || !sent.matches("[0-9]{" + PAYLOAD_SIZE + "}")) return;
+
+                        List<Long> latencies = received.get(source - 1);
+                        synchronized (latencies) {
+                            latencies.add(clock.currentTimeMillis() - Long.parseLong(sent));
+                        }
+                    }
+                });
+            }
+        }
+
+        protected void finish() {
+            latencies = new long[cardCount][];
+            for (int i = 0; i < cardCount; i++) {
+                List<Long> list = received.get(i);
+                synchronized (list) {
+                    latencies[i] = new long[list.size()];
+                    for (int j = 0; j < list.size(); j++) {
+                        latencies[i][j] = list.get(j);
+                    }
+                }
+            }
+        }
+
+        private long[] allLatencies() {
+            int total = 0;
+            for (long[] card : latencies) total += card.length;
+
+            long[] all = new long[total];
+            int index = 0;
+            for (long[] card : latencies) {
+                System.arraycopy(card, 0, all, index, card.length);
+                index += card.length;
+            }
+            return all;
+        }
+    }
+}
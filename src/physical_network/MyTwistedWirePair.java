@@ -1,56 +1,105 @@
 /*
  *  (c) K.Bryson, Dept. of Computer Science, UCL (2016)
- *  
+ *
  *  YOU SHOULD NOT NEED TO MODIFY THIS CLASS.
  *  (You will only submit on Moodle two files: DataFrame.java and NetworkCard.java)
  */
 
 package physical_network;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * 
+ *
  * Concrete implementation of the Twisted Wire Pair.
  *
  * This implementation will simply ADD TOGETHER all current voltages set
  * by different devices attached to the wire.
- * 
+ *
  * Thus you may have "Network Card A" device setting voltages to transfer bits
  * across the wire and at the same time a "Thermal Noise" device which
  * is setting random voltages on the wire. These voltages should then
  * be added together so that getVoltage() returns the sum of voltages
  * at any particular time.
- * 
+ *
  * Similarly any number of network cards may be attached to the wire and
  * each be setting voltages ... the wire should add all these voltages together.
- * 
+ *
+ * No locks are taken: every device owns a slot holding its voltage, and the sum is
+ * kept up to date by adding the change of each new voltage to it. Voltages are held
+ * as whole nanovolts so that the running sum never drifts through rounding errors.
+ *
  * @author K. Bryson
  */
 class MyTwistedWirePair implements TwistedWirePair {
-	
-    private double voltage = 0.0;
-    private HashMap<String, Double> currentVoltages = new HashMap<String, Double>();
 
-    public synchronized void setVoltage(String device, double voltage) {
-        currentVoltages.put(device, voltage);
-        updateWireVoltage();
+    /**
+     * Most devices that can be connected to one wire.
+     */
+    public static final int MAX_DEVICES = 4096;
+
+    private static final double NANOVOLTS_PER_VOLT = 1e9;
+
+    // Voltage set by each connected device, in nanovolts.
+    private final AtomicLongArray voltages = new AtomicLongArray(MAX_DEVICES);
+
+    // Sum of all voltages, in nanovolts.
+    private final AtomicLong total = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Integer> connections = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final Clock clock;
+
+    /**
+     * Creates a wire which runs in real time.
+     */
+    public MyTwistedWirePair() {
+        this(new RealTimeClock());
     }
 
-    /*
-     * Update current voltage on the wire.
+    /**
+     * @param clock Clock that all devices attached to this wire run against.
      */
-    private void updateWireVoltage(){
-    	
-        voltage = 0.0;
-
-        // Add all the currently set voltages together.
-        for (double currentVoltage: currentVoltages.values()) {
-        	voltage += currentVoltage;        	
-        }
-    }
-        
-    public synchronized double getVoltage(String device) {
-        return voltage;
+    public MyTwistedWirePair(Clock clock) {
+        this.clock = clock;
+    }
+
+    public int connect(String device) {
+        Integer connection = connections.get(device);
+        if (connection != null) return connection;
+
+        return connections.computeIfAbsent(device, name -> {
+            int next = connectionCount.getAndIncrement();
+            if (next >= MAX_DEVICES) {
+                throw new IllegalStateException("No more than " + MAX_DEVICES + " devices can be connected to a wire.");
+            }
+            return next;
+        });
+    }
+
+    public void setVoltage(String device, double voltage) {
+        setVoltage(connect(device), voltage);
+    }
+
+    public void setVoltage(int connection, double voltage) {
+        long nanovolts = Math.round(voltage * NANOVOLTS_PER_VOLT);
+        long previous = voltages.getAndSet(connection, nanovolts);
+        if (nanovolts != previous) total.addAndGet(nanovolts - previous);
+    }
+
+    public double getVoltage(String device) {
+        return total.get() / NANOVOLTS_PER_VOLT;
+    }
+
+    public double getVoltage(int connection) {
+        return total.get() / NANOVOLTS_PER_VOLT;
+    }
+
+    public Clock getClock() {
+        return clock;
     }
 }
@@ -8,11 +8,19 @@
 
 package physical_network;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 
 /**
@@ -27,19 +35,55 @@ import java.util.concurrent.*;
 
 public class NetworkCard {
 
+    /**
+     * ARQ protocols the network card can use for frames sent to a single destination.
+     * Both ends of a link must use the same mode.
+     */
+    public enum ArqMode {
+        /**
+         * One frame in flight, alternating 0/1 sequence number.
+         */
+        STOP_AND_WAIT,
+        /**
+         * Up to a window of frames in flight, each acknowledged and retransmitted individually.
+         */
+        SELECTIVE_REPEAT,
+        /**
+         * Up to a window of frames in flight, acknowledged cumulatively. The receiver only
+         * accepts frames in sequence and the sender resends everything after a timeout.
+         */
+        GO_BACK_N
+    }
 
     /**
-     * Amount of resent attempts before giving up
+     * Size of the sequence number space, the ack field in the header is 8 bits.
      */
-    private final int MAX_RESEND = 6;
+    private static final int SEQUENCE_SPACE = 256;
+
+    // Every sequence number boxed once, for keeping them in maps without allocating.
+    private static final Integer[] SEQUENCE_NUMBERS = new Integer[SEQUENCE_SPACE];
+
+    static {
+        for (int sequence = 0; sequence < SEQUENCE_SPACE; sequence++) {
+            SEQUENCE_NUMBERS[sequence] = sequence;
+        }
+    }
 
     /**
-     * Set of all received ACKs
+     * Amount of resent attempts before giving up
      */
-    private HashSet<ACK> ackSet = new HashSet<ACK>();
+    private final int MAX_RESEND = 6;
 
-    // Wire pair that the network card is atatched to.
+    // ARQ protocol and number of frames that may be in flight per destination.
+    private final ArqMode arqMode;
+    private final int windowSize;
+
+    // Wire pair that the network card is atatched to, and the card's connection to it.
     private final TwistedWirePair wire;
+    private final int wireConnection;
+
+    // Clock of the wire, used for all sleeping and blocking.
+    private final Clock clock;
 
     // Unique device number and name given to the network card.
     private final int deviceNumber;
@@ -56,27 +100,172 @@ public class NetworkCard {
 
     /**
      * For how long to wait for an ACK, in milliseconds. ACK is always 5 bytes long.
+     * This is only the starting point, the timeout adapts to the measured round-trip times.
      */
     private final int TIMEOUT = 14000;
 
+    /**
+     * Bounds for the adaptive timeout in milliseconds, and the jitter it always allows for (one byte).
+     */
+    private final int MIN_TIMEOUT = 1000;
+    private final int MAX_TIMEOUT = 60000;
+    private final int TIMEOUT_GRANULARITY = 13 * PULSE_WIDTH;
+
+    /**
+     * Longest a sender can keep retransmitting a frame before giving up on it, in milliseconds.
+     * Every attempt waits out at most the largest timeout of the sender, set by init().
+     */
+    private long giveUpTime;
+
+    /**
+     * How long the wire has to be quiet before a windowed mode sends a data frame, in milliseconds.
+     */
+    private final int IDLE_GAP = 2 * PULSE_WIDTH;
+
     private final int MAX_PAYLOAD_SIZE = 1500;
 
+    // Longest frame there can be before error correction, header and frame check included.
+    private final int MAX_FRAME_SIZE = DataFrame.Header.MAX_LENGTH + MAX_PAYLOAD_SIZE + FrameCheck.MAX_LENGTH;
+
     // Default value for input & output queue sizes.
     private final int QUEUE_SIZE = 5;
 
     /**
-     * Queue of objects to be transmitted, could be DataFrame or ACK
+     * Received frames handed back with DataFrame.release() and kept for the receiver to reuse.
+     * Enough for the largest selective repeat window held back behind a gap, the input queue
+     * and the frame being received.
+     */
+    private final int FRAME_POOL_SIZE = SEQUENCE_SPACE / 2 + QUEUE_SIZE + 1;
+    private final FramePool framePool = new FramePool(MAX_FRAME_SIZE, FRAME_POOL_SIZE);
+
+    // Largest payload sendMessage() puts into a single fragment.
+    private int fragmentSize = MAX_PAYLOAD_SIZE;
+
+    /**
+     * Longest wait for the next fragment of a message before giving up on it, in milliseconds.
+     * Unless set, init() allows for a full size fragment being resent until the sender gives
+     * up on it, and another one being sent at 13 pulses per byte (asynchronous NRZ) after that.
+     */
+    private long reassemblyTimeout = 0;
+
+    // Most bytes of unfinished messages held for each source.
+    private int reassemblyLimit = 4 * 1024 * 1024;
+
+    // Messages arriving in fragments, created by init().
+    private ReassemblyBuffer reassembly;
+
+    // Id of the next message sent in fragments.
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+
+    /**
+     * How long ACKs are held back waiting for a data frame to the same card to ride on,
+     * in milliseconds. With 0 every ACK is sent on its own straight away.
+     */
+    private int ackDelay = 0;
+
+    // Check protecting the payload of frames sent by this card.
+    private FrameCheck frameCheck = FrameCheck.SUM16;
+
+    // How bits are put on the wire, must match on both ends.
+    private LineCoding lineCoding = LineCoding.NRZ;
+
+    /**
+     * Whether frames are sent as one synchronous burst after a sync word, rather than
+     * giving every byte its own preamble and start pulse. Must match on both ends.
+     */
+    private boolean synchronousFraming = false;
+
+    /**
+     * Pattern starting a synchronous frame, sent one bit per pulse. The alternating bits
+     * give the receiver edges to lock onto and the final pair of ones marks the start.
+     */
+    private final int SYNC_WORD = 0xAB;
+
+    // How far the receiver moves its sampling point per symbol while tracking the sender's clock.
+    private final int CLOCK_STEP = PULSE_WIDTH / 20;
+
+    // Forward error correction applied to everything sent and received, must match on both ends.
+    private ErrorCorrection errorCorrection = ErrorCorrection.NONE;
+
+    // How the card shares the wire with the other cards attached to it.
+    private MediumAccess mediumAccess = MediumAccess.NONE;
+
+    // Makes the threads the transmitter and receiver run on.
+    private ThreadFactory threadFactory = ThreadModel.PLATFORM;
+
+    // Where the card reports what it does, and the least important events reported.
+    private volatile EventSink eventSink = new ConsoleEventSink();
+    private volatile EventLevel eventLevel = EventLevel.DEBUG;
+
+    /**
+     * CSMA/CD: unit of the random backoff after a collision, in milliseconds. Long enough for
+     * the other card to notice a frame that started at the beginning of the slot.
+     */
+    private final int SLOT_TIME = 2 * PULSE_WIDTH;
+
+    // CSMA/CD: collisions after which a frame is dropped, and after which the backoff stops growing.
+    private final int MAX_COLLISIONS = 16;
+    private final int MAX_BACKOFF_EXPONENT = 10;
+
+    /**
+     * CSMA/CD: how far the wire may stray from the voltage the card drives before it counts
+     * as somebody else sending. Thermal noise of up to twice this (peak to peak) is tolerated.
+     */
+    private final double COLLISION_THRESHOLD = HIGH_VOLTAGE / 2;
+
+    // TDMA: the slot this card sends in, the number of slots per cycle and the length of a slot in milliseconds.
+    private int timeSlot = -1;
+    private int timeSlots;
+    private int slotTime;
+
+    // TDMA: quiet time at the end of every slot, for receivers to finish with the last pulse.
+    private final int GUARD_TIME = PULSE_WIDTH;
+
+    // Set once the card's threads have been started.
+    private boolean initialized = false;
+
+    // Output queue for dataframes waiting to be transmitted.
+    private LinkedBlockingQueue<DataFrame> outputQueue = new LinkedBlockingQueue<DataFrame>(QUEUE_SIZE);
+
+    // Input queue for dataframes being received, array-backed so that queueing a frame does not allocate.
+    private ArrayBlockingQueue<DataFrame> inputQueue = new ArrayBlockingQueue<DataFrame>(QUEUE_SIZE);
+
+    /**
+     * Most ACKs waiting in each direction between the receiver and the transmitter. The
+     * transmitter takes them all every time round, so the queues only fill up if it is stuck.
+     */
+    private final int ACK_QUEUE_SIZE = SEQUENCE_SPACE;
+
+    /**
+     * ACKs waiting to be transmitted, sent ahead of any data frames.
+     */
+    private ArrayBlockingQueue<ACK> ackOutputQueue = new ArrayBlockingQueue<ACK>(ACK_QUEUE_SIZE);
+
+    /**
+     * ACKs received from other cards, waiting to be processed by the transmitter.
+     */
+    private ArrayBlockingQueue<ACK> receivedAcks = new ArrayBlockingQueue<ACK>(ACK_QUEUE_SIZE);
+
+    /**
+     * ACKs the transmitter is done with, kept for the receiver to reuse so that
+     * acknowledging a frame does not allocate. Guarded by itself.
+     */
+    private final ACK[] freeAcks = new ACK[ACK_QUEUE_SIZE];
+    private int freeAckCount = 0;
+
+    /**
+     * Wakes up the transmitter whenever there is something new for it to do, e.g. an ACK has arrived.
      */
-    private LinkedBlockingQueue<Object> outputQueue = new LinkedBlockingQueue<Object>(QUEUE_SIZE);
+    private ArrayBlockingQueue<Object> txWakeup = new ArrayBlockingQueue<Object>(1);
 
-    // Input queue for dataframes being received.
-    private LinkedBlockingQueue<DataFrame> inputQueue = new LinkedBlockingQueue<DataFrame>(QUEUE_SIZE);
+    // Counters and histograms of everything the card does.
+    private final CardMetrics metrics = new CardMetrics(outputQueue, inputQueue);
 
     // Transmitter thread.
-    private Thread txThread;
+    private TXThread txThread;
 
     // Receiver thread.
-    private Thread rxThread;
+    private RXThread rxThread;
 
     /**
      * NetworkCard constructor.
@@ -85,10 +274,32 @@ public class NetworkCard {
      * @param wire   This is the shared wire that this network card is connected to.
      */
     public NetworkCard(int number, TwistedWirePair wire) {
+        this(number, wire, ArqMode.STOP_AND_WAIT, 1);
+    }
+
+    /**
+     * NetworkCard constructor.
+     *
+     * @param number     This provides the name of this device, i.e. "Network Card A".
+     * @param wire       This is the shared wire that this network card is connected to.
+     * @param arqMode    ARQ protocol used for frames addressed to a single card.
+     * @param windowSize Maximum number of unacknowledged frames per destination.
+     */
+    public NetworkCard(int number, TwistedWirePair wire, ArqMode arqMode, int windowSize) {
+
+        if (windowSize < 1
+                || (arqMode == ArqMode.SELECTIVE_REPEAT && windowSize > SEQUENCE_SPACE / 2)
+                || (arqMode == ArqMode.GO_BACK_N && windowSize > SEQUENCE_SPACE - 1)) {
+            throw new IllegalArgumentException("Invalid window size " + windowSize + " for " + arqMode);
+        }
 
         this.deviceNumber = number;
         this.deviceName = "NetCard" + number;
         this.wire = wire;
+        this.wireConnection = wire.connect(this.deviceName);
+        this.clock = wire.getClock();
+        this.arqMode = arqMode;
+        this.windowSize = arqMode == ArqMode.STOP_AND_WAIT ? 1 : windowSize;
 
         txThread = this.new TXThread();
         rxThread = this.new RXThread();
@@ -98,166 +309,986 @@ public class NetworkCard {
      * Initialize the network card.
      */
     public void init() {
+        if (mediumAccess == MediumAccess.TDMA && timeSlot < 0) {
+            throw new IllegalStateException(deviceName + " needs a time slot for TDMA.");
+        }
+        initialized = true;
+        giveUpTime = this.maxTimeout() * (MAX_RESEND + 1);
+        if (reassemblyTimeout == 0) reassemblyTimeout = giveUpTime + 13L * PULSE_WIDTH * MAX_PAYLOAD_SIZE;
+        reassembly = new ReassemblyBuffer(reassemblyTimeout, reassemblyLimit);
         txThread.start();
         rxThread.start();
     }
 
+    /*
+     * Largest timeout a sender waits for an ACK. Under TDMA the ACK may have to wait for the
+     * receiver's slot, up to a cycle away, so the timeout is allowed to grow further.
+     */
+    private long maxTimeout() {
+        if (mediumAccess != MediumAccess.TDMA) return MAX_TIMEOUT;
+        return Math.max(MAX_TIMEOUT, 4L * timeSlots * slotTime);
+    }
+
+    /**
+     * Stops the card and waits for its threads to finish. Frames still waiting to be sent
+     * or received are dropped, and the card cannot be started again.
+     */
+    public void shutdown() throws InterruptedException {
+        txThread.interrupt();
+        rxThread.interrupt();
+        txThread.join();
+        rxThread.join();
+    }
+
+    /**
+     * Selects what the transmitter and receiver of this card run on, ThreadModel.PLATFORM to
+     * begin with. ThreadModel.VIRTUAL lets thousands of cards share a wire without taking an
+     * operating system thread each. Must be called before init().
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        checkNotInitialized();
+        if (threadFactory == null) throw new IllegalArgumentException("Thread factory must not be null.");
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Lets ACKs wait for a data frame going back to the same card so they can be carried
+     * in its header, rather than taking up the wire as a frame of their own. ACKs for the
+     * same card that pile up in the meantime are merged where the ARQ mode allows it.
+     * Must be called before init().
+     *
+     * @param ackDelay Longest time to hold back an ACK in milliseconds, 0 to disable.
+     */
+    public void setAckDelay(int ackDelay) {
+        checkNotInitialized();
+        if (ackDelay < 0) throw new IllegalArgumentException("Negative ACK delay " + ackDelay);
+        this.ackDelay = ackDelay;
+    }
+
+    /**
+     * Selects the check protecting the payload of every frame sent by this card.
+     * Receivers pick up the check from the frame header, whatever their own setting.
+     * Must be called before init().
+     */
+    public void setFrameCheck(FrameCheck frameCheck) {
+        checkNotInitialized();
+        this.frameCheck = frameCheck;
+    }
+
+    /**
+     * Selects the forward error correction for all frames sent and received by this card.
+     * Every card on the wire must use the same code. Must be called before init().
+     */
+    public void setErrorCorrection(ErrorCorrection errorCorrection) {
+        checkNotInitialized();
+        this.errorCorrection = errorCorrection;
+    }
+
+    /**
+     * Selects how bits are turned into voltages on the wire. Every card on the wire
+     * must use the same coding. Must be called before init().
+     */
+    public void setLineCoding(LineCoding lineCoding) {
+        checkNotInitialized();
+        this.lineCoding = lineCoding;
+    }
+
+    /**
+     * Sends frames as a sync word followed by all bytes back to back, with the receiver
+     * recovering the sender's clock from the signal. Saves the preamble and start pulse
+     * of every byte, 5 of the 13 pulses a byte otherwise takes with NRZ. Every card on
+     * the wire must use the same framing. Must be called before init().
+     */
+    public void setSynchronousFraming(boolean synchronousFraming) {
+        checkNotInitialized();
+        this.synchronousFraming = synchronousFraming;
+    }
+
+    /**
+     * Selects how this card shares the wire with other cards. Must be called before init().
+     */
+    public void setMediumAccess(MediumAccess mediumAccess) {
+        checkNotInitialized();
+        this.mediumAccess = mediumAccess;
+    }
+
+    /**
+     * Gives the card its time slot for MediumAccess.TDMA. Time is divided into cycles of
+     * 'slots' slots of 'slotTime' milliseconds each, starting at time 0 on the clock of the
+     * wire. Every card on the wire needs a slot of its own and the same slot count and time.
+     * The slot time should leave room for the longest frame, a frame that does not fit is
+     * sent at the start of the card's next slot and runs over into the following one.
+     * Must be called before init().
+     *
+     * @param slot Slot of this card, from 0 to slots - 1.
+     */
+    public void setTimeSlot(int slot, int slots, int slotTime) {
+        checkNotInitialized();
+        if (slots < 1 || slot < 0 || slot >= slots || slotTime <= GUARD_TIME) {
+            throw new IllegalArgumentException("Invalid time slot " + slot + " of " + slots + " lasting " + slotTime + " ms");
+        }
+        this.timeSlot = slot;
+        this.timeSlots = slots;
+        this.slotTime = slotTime;
+    }
+
+    /**
+     * Sets the largest number of bytes sendMessage() puts into one fragment.
+     * Must be called before init().
+     */
+    public void setFragmentSize(int fragmentSize) {
+        checkNotInitialized();
+        if (fragmentSize < 1 || fragmentSize > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Fragment size " + fragmentSize + " not between 1 and " + MAX_PAYLOAD_SIZE);
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Limits the messages being put back together from fragments. A message is dropped once
+     * none of its fragments has arrived for the timeout, and the oldest unfinished messages
+     * from a source are dropped when they would take up more than the given number of bytes.
+     * Must be called before init().
+     *
+     * @param timeout           In milliseconds.
+     * @param maxBytesPerSource Also the largest message that can be received from one source.
+     */
+    public void setReassemblyLimits(long timeout, int maxBytesPerSource) {
+        checkNotInitialized();
+        if (timeout < 1 || maxBytesPerSource < 1) {
+            throw new IllegalArgumentException("Invalid reassembly limits " + timeout + " ms, " + maxBytesPerSource + " bytes");
+        }
+        this.reassemblyTimeout = timeout;
+        this.reassemblyLimit = maxBytesPerSource;
+    }
+
+    /**
+     * Sends the events this card reports to the given sink instead of printing them.
+     * May be called at any time, and several cards may share one sink.
+     */
+    public void setEventSink(EventSink eventSink) {
+        if (eventSink == null) throw new IllegalArgumentException("Use setEventLevel(EventLevel.OFF) to report nothing.");
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * Reports only events of the given level and above, DEBUG to begin with. Events below the
+     * level cost no more than checking it. May be called at any time.
+     */
+    public void setEventLevel(EventLevel eventLevel) {
+        if (eventLevel == null) throw new IllegalArgumentException("Event level must not be null.");
+        this.eventLevel = eventLevel;
+    }
+
+    /**
+     * @return Live counters and round-trip times of this card.
+     */
+    public CardMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes the metrics of this card readable over JMX, as
+     * physical_network:type=NetworkCard,name= followed by the device name.
+     *
+     * @throws JMException If a card with the same name has already been registered.
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName("physical_network:type=NetworkCard,name=" + deviceName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        return name;
+    }
+
+    /**
+     * @return Number of received frames in which errors were corrected.
+     */
+    public long getCorrectedFrames() {
+        return metrics.getCorrectedFrames();
+    }
+
+    /**
+     * @return Number of received frames with more errors than could be corrected.
+     */
+    public long getUncorrectableFrames() {
+        return metrics.getUncorrectableFrames();
+    }
+
+    /**
+     * @return Number of times this card found another card sending at the same time (CSMA/CD only).
+     */
+    public long getCollisions() {
+        return metrics.getCollisions();
+    }
+
+    /**
+     * @return Number of frames this card dropped after colliding too often (CSMA/CD only).
+     */
+    public long getAbortedFrames() {
+        return metrics.getAbortedFrames();
+    }
+
+    /**
+     * @return Number of messages given up on while putting them back together from fragments.
+     */
+    public long getDroppedMessages() {
+        return reassembly == null ? 0 : reassembly.getDroppedMessages();
+    }
+
+    /*
+     * Counts an event and passes it on to the sink unless it is below the level reported.
+     */
+    private void report(CardEvent event, int peer, int value) {
+        metrics.count(event);
+        if (event.getLevel().compareTo(eventLevel) < 0) return;
+        eventSink.event(clock.currentTimeMillis(), deviceNumber, event, peer, value);
+    }
+
+    private void checkNotInitialized() {
+        if (initialized) throw new IllegalStateException(deviceName + " has already been initialized.");
+    }
+
+
+    /**
+     * Queues a frame for sending, blocking while the output queue is full.
+     * Payloads larger than MAX_PAYLOAD_SIZE have to be sent with sendMessage() instead.
+     */
+    public void send(DataFrame data) throws InterruptedException {
+        if (data.getData().getLength() > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload of " + data.getData().getLength()
+                    + " bytes is larger than " + MAX_PAYLOAD_SIZE + ", use sendMessage() instead.");
+        }
+        data.getHeader().setSource(this.deviceNumber);
+        data.setFrameCheck(frameCheck);
+        clock.put(outputQueue, data);
+        wakeTransmitter();
+    }
+
+    /**
+     * Sends a message of any length. Messages longer than the fragment size are split into
+     * fragments, which the receiving card puts back together, so that receive() on the other
+     * end returns the whole message as a single frame. Blocks while the output queue is full.
+     */
+    public void sendMessage(byte[] message, int destination) throws InterruptedException {
+        if (message.length <= fragmentSize) {
+            this.send(new DataFrame(message, destination));
+            return;
+        }
+
+        int messageId = nextMessageId.getAndIncrement();
+        for (int offset = 0; offset < message.length; offset += fragmentSize) {
+            int end = Math.min(offset + fragmentSize, message.length);
+            this.sendFragment(Arrays.copyOfRange(message, offset, end), destination, messageId, offset, end < message.length);
+        }
+    }
+
+    /**
+     * Sends everything read from the stream until its end as one message, like
+     * sendMessage(byte[], int), holding no more than two fragments of it in memory at a time.
+     */
+    public void sendMessage(InputStream message, int destination) throws IOException, InterruptedException {
+        int messageId = nextMessageId.getAndIncrement();
+        byte[] fragment = message.readNBytes(fragmentSize);
+        int offset = 0;
+
+        while (true) {
+            // Read ahead to find out whether this is the last fragment.
+            byte[] next = message.readNBytes(fragmentSize);
+            if (next.length == 0) break;
+
+            this.sendFragment(fragment, destination, messageId, offset, true);
+            if (offset > Integer.MAX_VALUE - 2 * fragmentSize) throw new IOException("Message is too long to send.");
+            offset += fragment.length;
+            fragment = next;
+        }
+
+        if (offset == 0) {
+            this.send(new DataFrame(fragment, destination));
+        } else {
+            this.sendFragment(fragment, destination, messageId, offset, false);
+        }
+    }
+
+    private void sendFragment(byte[] bytes, int destination, int messageId, int offset, boolean more)
+            throws InterruptedException {
+        DataFrame fragment = new DataFrame(bytes, destination);
+        fragment.getHeader().setFragment(messageId, offset, more);
+        this.send(fragment);
+    }
+
+    /**
+     * Waits for the next data frame addressed to this card. Calling release() on the frame
+     * once done with it lets the card reuse its memory, so that receiving does not allocate.
+     */
+    public DataFrame receive() throws InterruptedException {
+        return clock.take(inputQueue);
+    }
+
+    /*
+     * Lets the transmitter know that a queue it looks after has changed.
+     */
+    private void wakeTransmitter() {
+        clock.offer(txWakeup, Boolean.TRUE);
+    }
+
+    /*
+     * Queues an ACK from this card for transmission.
+     */
+    private void queueAck(int destination, int number) {
+        ACK ack = takeAck();
+        ack.set(deviceNumber, destination, number);
+        // Dropping an ACK only costs a retransmission, the queue is not meant to fill up anyway.
+        if (!clock.offer(ackOutputQueue, ack)) {
+            releaseAck(ack);
+            return;
+        }
+        wakeTransmitter();
+    }
+
+    /*
+     * Takes an ACK to fill in from the pool, or makes a new one if none is free.
+     */
+    private ACK takeAck() {
+        synchronized (freeAcks) {
+            if (freeAckCount > 0) {
+                ACK ack = freeAcks[--freeAckCount];
+                freeAcks[freeAckCount] = null;
+                return ack;
+            }
+        }
+        return new ACK(0, 0, 0);
+    }
+
+    /*
+     * Hands back an ACK which has been sent or dealt with, it must not be used afterwards.
+     */
+    private void releaseAck(ACK ack) {
+        synchronized (freeAcks) {
+            if (freeAckCount < freeAcks.length) freeAcks[freeAckCount++] = ack;
+        }
+    }
+
+    /*
+     * Distance from sequence number 'from' forward to sequence number 'to'.
+     */
+    private static int sequenceOffset(int from, int to) {
+        return (to - from + SEQUENCE_SPACE) % SEQUENCE_SPACE;
+    }
+
+    /*
+     * The sequence number as an Integer, without allocating one for numbers above 127.
+     */
+    private static Integer boxed(int sequence) {
+        return SEQUENCE_NUMBERS[sequence];
+    }
+
+    /**
+     * Frame which has been sent but not acknowledged yet.
+     */
+    private static class PendingFrame {
+
+        private final DataFrame frame;
+        private final long sentTime;
+        private long deadline;
+        private int attempts = 1;
+        private boolean retransmitted = false;
+        private boolean acknowledged = false;
+
+        public PendingFrame(DataFrame frame, long sentTime, long deadline) {
+            this.frame = frame;
+            this.sentTime = sentTime;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Sending side of the sliding window towards a single destination.
+     */
+    private static class SendWindow {
+
+        // Oldest unacknowledged sequence number and the next one to be used.
+        private int base = 0;
+        private int nextSequence = 0;
+
+        private final HashMap<Integer, PendingFrame> pending = new HashMap<>();
+
+        public int inFlight() {
+            return sequenceOffset(base, nextSequence);
+        }
+
+        /*
+         * Slides the window past all frames at its start which have been dealt with.
+         */
+        public void slide() {
+            PendingFrame first;
+            while ((first = pending.get(base)) != null && first.acknowledged) {
+                pending.remove(base);
+                base = (base + 1) % SEQUENCE_SPACE;
+            }
+        }
+    }
+
+    /**
+     * Receiving side of the selective repeat window for frames from a single source.
+     */
+    private static class ReceiveWindow {
+
+        private int expected = 0;
+
+        // Frames received ahead of the expected one, by sequence number.
+        private final DataFrame[] buffered = new DataFrame[SEQUENCE_SPACE];
+        private int bufferedCount = 0;
+
+        // Time since which a gap at the start of the window has been holding up buffered frames.
+        private long gapSince;
+    }
+
+    static class ACK {
+
+        private int source8;
+        private int destination8;
+        private int number8;
+        private int checksum16;
+
+        // Time at which the ACK came in, used for measuring round-trip times.
+        private long receivedTime;
+
+        // Time by which an ACK held back by this card has to be sent.
+        private long dueTime;
+
+        public static ACK fromReceivedBytes(byte[] bytes) throws Exception {
+            return fromReceivedBytes(bytes, bytes.length);
+        }
+
+        /**
+         * Reads an ACK from the first length bytes of the array.
+         */
+        public static ACK fromReceivedBytes(byte[] bytes, int length) throws Exception {
+            if(length != 5) {
+                throw new Exception("Invalid byte array supplied to ACK factory!");
+            }
+            int checksum16 = ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+            return new ACK(bytes[0] & 0xFF, bytes[1] & 0xFF, bytes[2] & 0xFF, checksum16);
+        }
+
+        public ACK(int source8, int destination8, int number8, int checksum16) {
+            this(source8, destination8, number8);
+            this.checksum16 = checksum16;
+        }
+
+        public ACK(int source8, int destination8, int number8) {
+            this.set(source8, destination8, number8);
+        }
+
+        /*
+         * Turns a pooled ACK into the one in the first five bytes of the array.
+         */
+        private void read(byte[] bytes) {
+            this.set(bytes[0] & 0xFF, bytes[1] & 0xFF, bytes[2] & 0xFF);
+            this.checksum16 = ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+        }
+
+        /*
+         * Turns a pooled ACK into a new one.
+         */
+        private void set(int source8, int destination8, int number8) {
+            this.source8 = source8;
+            this.destination8 = destination8;
+            this.number8 = number8;
+            this.checksum16 = calculateChecksum();
+            this.receivedTime = 0;
+            this.dueTime = 0;
+        }
+
+        public boolean verifyChecksum() {
+            return this.checksum16 == this.calculateChecksum();
+        }
+
+        private int calculateChecksum() {
+            // Ones' complement sum of the three fields.
+            int sum = source8 + destination8 + number8;
+            sum = (sum & 0xFFFF) + (sum >> 16);
+            return ~sum & 0xFFFF;
+        }
+
+        public int getSource() {
+            return source8;
+        }
+
+        public int getDestination() {
+            return destination8;
+        }
+
+        public int getNumber() {
+            return number8;
+        }
+
+        public long getReceivedTime() {
+            return receivedTime;
+        }
+
+        public void setReceivedTime(long receivedTime) {
+            this.receivedTime = receivedTime;
+        }
+
+        public byte[] getTransmittedBytes() {
+            byte[] bytes = new byte[5];
+            this.encode(ByteBuffer.wrap(bytes));
+            return bytes;
+        }
+
+        /*
+         * Writes the ACK into the buffer at its position and moves the position past it.
+         */
+        private void encode(ByteBuffer buffer) {
+            buffer.put((byte) (this.source8 & 0xFF));
+            buffer.put((byte) (this.getDestination() & 0xFF));
+            buffer.put((byte) (this.getNumber() & 0xFF));
+            buffer.put((byte) ((this.checksum16 >> 8) & 0xFF));
+            buffer.put((byte) (this.checksum16 & 0xFF));
+        }
+    }
+
+    /*
+     * Private inner thread class that transmits data.
+     */
+    private class TXThread extends CommThread {
+
+        private int currentAckNumber = 0;
+
+        // Number of the next broadcast, counted apart from the frames sent to single cards.
+        private int broadcastSequence = 0;
+
+        // Round-trip time estimates for each destination.
+        private final HashMap<Integer, RttEstimator> rttEstimators = new HashMap<>();
+
+        // ACKs held back waiting for a data frame to ride on, in the order they are due.
+        private final ArrayList<ACK> delayedAcks = new ArrayList<>();
+
+        // Sliding windows for frames sent to each destination.
+        private final HashMap<Integer, SendWindow> sendWindows = new HashMap<>();
+
+        // Every frame is encoded into this, without error correction it goes on the wire from here.
+        private final ByteBuffer frameBuffer = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+        public void run() {
+
+            try {
+                if (arqMode == ArqMode.STOP_AND_WAIT) {
+                    runStopAndWait();
+                } else {
+                    runSlidingWindow();
+                }
+            } catch (InterruptedException except) {
+                report(CardEvent.STOPPED, -1, -1);
+            } finally {
+                clock.unregister(Thread.currentThread());
+            }
+
+        }
+
+        /*
+         * Sends one frame at a time and waits for its ACK before moving on.
+         */
+        private void runStopAndWait() throws InterruptedException {
+
+            while (true) {
+                this.transmitQueuedAcks();
+
+                DataFrame frame = clock.poll(outputQueue, 0);
+                if (frame == null) {
+                    // Nothing to send, sleep until there is.
+                    clock.poll(txWakeup, this.timeUntilAckDue());
+                    continue;
+                }
+
+                if (frame.getHeader().getDestination() == 0) {
+                    this.transmitBroadcast(frame);
+                    continue;
+                }
+
+                frame.getHeader().setAck(currentAckNumber);
+
+                // Transmit the frame for the first time
+                this.transmitFrame(frame);
+
+                // Wait for ACK before proceeding, resend if no ACK is received
+                report(CardEvent.FRAME_SENT, frame.getHeader().getDestination(), currentAckNumber);
+                this.awaitAck(frame);
+            }
+        }
+
+        /*
+         * Sends a broadcast once, numbered so that receivers can tell it from the one before.
+         */
+        private void transmitBroadcast(DataFrame frame) throws InterruptedException {
+            frame.getHeader().setAck(broadcastSequence);
+            broadcastSequence = (broadcastSequence + 1) % SEQUENCE_SPACE;
+            this.transmitFrame(frame);
+            report(CardEvent.FRAME_BROADCAST, -1, -1);
+        }
+
+        /*
+         * Blocks until the receiver signals the ACK for the frame, resending the frame
+         * whenever the timeout passes without it.
+         */
+        private void awaitAck(DataFrame frame) throws InterruptedException {
+            RttEstimator rtt = this.getRttEstimator(frame.getHeader().getDestination());
+            long sentTime = clock.currentTimeMillis();
+            long deadline = sentTime + rtt.getTimeout();
+            int attempts = 1;
+
+            while (true) {
+                // Keep answering the other side while we wait.
+                this.transmitQueuedAcks();
+
+                ACK ack;
+                while ((ack = clock.poll(receivedAcks, 0)) != null) {
+                    if (ack.getSource() != frame.getHeader().getDestination()) {
+                        releaseAck(ack);
+                        continue;
+                    }
+
+                    // Check if ACK is for the most recent request, otherwise ignore it
+                    if (ack.getNumber() == currentAckNumber) {
+                        report(CardEvent.ACK_RECEIVED, ack.getSource(), ack.getNumber());
+                        currentAckNumber = 1 - currentAckNumber;
+
+                        // Karn's rule, the ACK could be for any copy of a resent frame.
+                        if (attempts == 1) {
+                            rtt.addSample(ack.getReceivedTime() - sentTime);
+                            metrics.rtt.record(ack.getReceivedTime() - sentTime);
+                        }
+                        releaseAck(ack);
+                        return;
+                    }
+                    report(CardEvent.DUPLICATE_ACK, ack.getSource(), ack.getNumber());
+                    releaseAck(ack);
+                }
+
+                if (clock.currentTimeMillis() >= deadline) {
+                    if (attempts > MAX_RESEND) {
+                        report(CardEvent.GAVE_UP_SENDING, frame.getHeader().getDestination(), currentAckNumber);
+                        return;
+                    }
+                    attempts++;
+                    rtt.backOff();
+                    report(CardEvent.RETRANSMIT, frame.getHeader().getDestination(), currentAckNumber);
+                    transmitFrame(frame);
+                    deadline = clock.currentTimeMillis() + rtt.getTimeout();
+                }
+
+                // Woken up straight away when the receiver passes on an ACK.
+                clock.poll(txWakeup, Math.min(Math.max(0, deadline - clock.currentTimeMillis()), this.timeUntilAckDue()));
+            }
+        }
+
+        /*
+         * Takes all ACKs the receiver has queued up and sends the ones which are due.
+         */
+        private void transmitQueuedAcks() throws InterruptedException {
+            ACK ack;
+            while ((ack = clock.poll(ackOutputQueue, 0)) != null) {
+                this.delayAck(ack);
+            }
+
+            while (!delayedAcks.isEmpty() && delayedAcks.get(0).dueTime <= clock.currentTimeMillis()) {
+                ack = delayedAcks.remove(0);
+                this.transmitAck(ack);
+                report(CardEvent.ACK_SENT, ack.getDestination(), ack.getNumber());
+                releaseAck(ack);
+            }
+        }
+
+        /*
+         * Holds back an ACK for up to ackDelay. Apart from selective repeat, where every frame
+         * is acknowledged individually, a newer ACK for a card replaces an older one.
+         */
+        private void delayAck(ACK ack) {
+            ack.dueTime = clock.currentTimeMillis() + ackDelay;
+
+            if (arqMode != ArqMode.SELECTIVE_REPEAT) {
+                for (int i = 0; i < delayedAcks.size(); i++) {
+                    ACK delayed = delayedAcks.get(i);
+                    if (delayed.getDestination() == ack.getDestination()) {
+                        ack.dueTime = delayed.dueTime;
+                        delayedAcks.set(i, ack);
+                        releaseAck(delayed);
+                        return;
+                    }
+                }
+            }
+            delayedAcks.add(ack);
+        }
+
+        /*
+         * Time until the next held back ACK has to be sent.
+         */
+        private long timeUntilAckDue() {
+            if (delayedAcks.isEmpty()) return Long.MAX_VALUE;
+            return Math.max(0, delayedAcks.get(0).dueTime - clock.currentTimeMillis());
+        }
+
+        /*
+         * Puts the first held back ACK for the frame's destination into the frame's header.
+         */
+        private void piggybackAck(DataFrame frame) {
+            DataFrame.Header header = frame.getHeader();
+            header.clearPiggybackAck();
+            if (header.getDestination() == 0) return;
+
+            for (int i = 0; i < delayedAcks.size(); i++) {
+                ACK ack = delayedAcks.get(i);
+                if (ack.getDestination() == header.getDestination()) {
+                    header.setPiggybackAck(ack.getNumber());
+                    delayedAcks.remove(i);
+                    report(CardEvent.ACK_PIGGYBACKED, ack.getDestination(), ack.getNumber());
+                    releaseAck(ack);
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Keeps up to windowSize frames in flight per destination, for both selective repeat
+         * and Go-Back-N. They only differ in how ACKs and timeouts are dealt with.
+         *
+         * Data frames and ACKs travelling in opposite directions share the same wire, so each
+         * data frame waits for the wire to go quiet first, giving the ACKs priority.
+         */
+        private void runSlidingWindow() throws InterruptedException {
+
+            // Next frame to send, held back while the window towards its destination is full.
+            DataFrame nextFrame = null;
+
+            while (true) {
+
+                // ACKs go first so that the other side is never held up by our own traffic.
+                this.transmitQueuedAcks();
+
+                ACK ack;
+                while ((ack = clock.poll(receivedAcks, 0)) != null) {
+                    if (arqMode == ArqMode.GO_BACK_N) {
+                        this.processCumulativeAck(ack);
+                    } else {
+                        this.processSelectiveAck(ack);
+                    }
+                    releaseAck(ack);
+                }
+
+                this.retransmitExpiredFrames();
 
-    public void send(DataFrame data) throws InterruptedException {
-        data.getHeader().setSource(this.deviceNumber);
-        outputQueue.put(data);
-    }
+                // Fill up the windows with new frames.
+                while (true) {
+                    if (nextFrame == null) nextFrame = clock.poll(outputQueue, 0);
+                    if (nextFrame == null) break;
 
-    public DataFrame receive() throws InterruptedException {
-        return inputQueue.take();
-    }
+                    int destination = nextFrame.getHeader().getDestination();
+                    if (destination == 0) {
+                        this.waitForIdleWire();
+                        this.transmitBroadcast(nextFrame);
+                        nextFrame = null;
+                        continue;
+                    }
 
-    private static class ACK {
+                    SendWindow window = this.getSendWindow(destination);
+                    if (window.inFlight() >= windowSize) break;
 
-        private int source8;
-        private int destination8;
-        private int number8;
-        private int checksum16;
+                    nextFrame.getHeader().setAck(window.nextSequence);
+                    this.waitForIdleWire();
+                    this.transmitFrame(nextFrame);
+                    report(CardEvent.FRAME_SENT, destination, window.nextSequence);
 
-        public static ACK fromReceivedBytes(byte[] bytes) throws Exception {
-            if(bytes.length != 5) {
-                throw new Exception("Invalid byte array supplied to ACK factory!");
-            }
-            int checksum16 = ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
-            return new ACK(bytes[0] & 0xFF, bytes[1] & 0xFF, bytes[2] & 0xFF, checksum16);
-        }
+                    long sentTime = clock.currentTimeMillis();
+                    long deadline = sentTime + this.getRttEstimator(destination).getTimeout();
+                    window.pending.put(window.nextSequence, new PendingFrame(nextFrame, sentTime, deadline));
+                    window.nextSequence = (window.nextSequence + 1) % SEQUENCE_SPACE;
+                    nextFrame = null;
+                }
 
-        public ACK(int source8, int destination8, int number8, int checksum16) {
-            this(source8, destination8, number8);
-            this.checksum16 = checksum16;
+                clock.poll(txWakeup, Math.min(this.timeUntilNextDeadline(), this.timeUntilAckDue()));
+            }
         }
 
-        public ACK(int source8, int destination8, int number8) {
-            this.source8 = source8;
-            this.destination8 = destination8;
-            this.number8 = number8;
-            this.checksum16 = calculateChecksum();
+        private RttEstimator getRttEstimator(int destination) {
+            RttEstimator rtt = rttEstimators.get(destination);
+            if (rtt == null) {
+                // Error correction makes the ACK longer, so it takes longer to come back.
+                long initialTimeout = (long) TIMEOUT * errorCorrection.encodedLength(5) / 5;
+                if (mediumAccess == MediumAccess.TDMA) {
+                    // The ACK has to wait for the receiver's slot, which may be up to a cycle away.
+                    long cycle = (long) timeSlots * slotTime;
+                    rtt = new RttEstimator(Math.max(initialTimeout, cycle + slotTime), Math.max(MIN_TIMEOUT, cycle),
+                            maxTimeout(), TIMEOUT_GRANULARITY);
+                } else {
+                    rtt = new RttEstimator(initialTimeout, MIN_TIMEOUT, maxTimeout(), TIMEOUT_GRANULARITY);
+                }
+                rttEstimators.put(destination, rtt);
+            }
+            return rtt;
         }
 
-        public boolean verifyChecksum() {
-            return this.checksum16 == this.calculateChecksum();
+        /*
+         * Measures the round-trip time of a frame unless it was ever resent (Karn's rule).
+         */
+        private void sampleRtt(int destination, PendingFrame pending, ACK ack) {
+            if (!pending.retransmitted) {
+                this.getRttEstimator(destination).addSample(ack.getReceivedTime() - pending.sentTime);
+                metrics.rtt.record(ack.getReceivedTime() - pending.sentTime);
+            }
         }
 
-        private int calculateChecksum() {
-            int[] integers = new int[]{
-                    source8,
-                    destination8,
-                    number8
-            };
-            int sum = 0;
-            for (int integer : integers) {
-                int localSum = sum + integer;
-                sum = (localSum & 0xFFFF) + (localSum >> 16);
+        private SendWindow getSendWindow(int destination) {
+            SendWindow window = sendWindows.get(destination);
+            if (window == null) {
+                window = new SendWindow();
+                sendWindows.put(destination, window);
             }
-            return ~sum & 0xFFFF;
+            return window;
         }
 
-        public int getSource() {
-            return source8;
-        }
+        /*
+         * Marks the frame an ACK is for as delivered and slides the window if possible.
+         */
+        private void processSelectiveAck(ACK ack) {
+            SendWindow window = sendWindows.get(ack.getSource());
+            PendingFrame pending = window == null ? null : window.pending.get(ack.getNumber());
 
-        public int getDestination() {
-            return destination8;
-        }
+            if (pending == null || pending.acknowledged) {
+                report(CardEvent.DUPLICATE_ACK, ack.getSource(), ack.getNumber());
+                return;
+            }
 
-        public int getNumber() {
-            return number8;
+            report(CardEvent.ACK_RECEIVED, ack.getSource(), ack.getNumber());
+            this.sampleRtt(ack.getSource(), pending, ack);
+            pending.acknowledged = true;
+            window.slide();
         }
 
-        public byte[] getTransmittedBytes() {
-            return new byte[]{
-                    (byte) (this.source8 & 0xFF),
-                    (byte) (this.getDestination() & 0xFF),
-                    (byte) (this.getNumber() & 0xFF),
-                    (byte) ((this.checksum16 >> 8) & 0xFF),
-                    (byte) (this.checksum16 & 0xFF)
-            };
-        }
-    }
+        /*
+         * Marks every frame up to and including the one an ACK is for as delivered,
+         * restarting the timer for the oldest frame still in flight.
+         */
+        private void processCumulativeAck(ACK ack) {
+            SendWindow window = sendWindows.get(ack.getSource());
+            if (window == null || sequenceOffset(window.base, ack.getNumber()) >= window.inFlight()) {
+                report(CardEvent.DUPLICATE_ACK, ack.getSource(), ack.getNumber());
+                return;
+            }
 
-    /*
-     * Private inner thread class that transmits data.
-     */
-    private class TXThread extends CommThread {
+            report(CardEvent.ACK_RECEIVED, ack.getSource(), ack.getNumber());
+            this.sampleRtt(ack.getSource(), window.pending.get(ack.getNumber()), ack);
+            int last = (ack.getNumber() + 1) % SEQUENCE_SPACE;
+            for (int sequence = window.base; sequence != last; sequence = (sequence + 1) % SEQUENCE_SPACE) {
+                window.pending.get(sequence).acknowledged = true;
+            }
+            window.slide();
 
-        private int currentAckNumber = 0;
+            PendingFrame oldest = window.pending.get(window.base);
+            if (oldest != null) {
+                oldest.deadline = clock.currentTimeMillis() + this.getRttEstimator(ack.getSource()).getTimeout();
+            }
+        }
 
-        public void run() {
+        /*
+         * Deals with retransmission timers which have run out.
+         */
+        private void retransmitExpiredFrames() throws InterruptedException {
+            for (Map.Entry<Integer, SendWindow> entry : sendWindows.entrySet()) {
+                RttEstimator rtt = this.getRttEstimator(entry.getKey());
+                if (arqMode == ArqMode.GO_BACK_N) {
+                    this.goBack(entry.getValue(), rtt);
+                } else {
+                    this.retransmitSelective(entry.getValue(), rtt);
+                }
+            }
+        }
 
-            try {
-                while (true) {
-                    // Blocks if nothing is in queue.
-                    Object transmitObject = outputQueue.take();
+        /*
+         * Resends the whole window once the oldest frame has timed out, giving up on
+         * that frame after MAX_RESEND attempts.
+         */
+        private void goBack(SendWindow window, RttEstimator rtt) throws InterruptedException {
+            PendingFrame oldest = window.pending.get(window.base);
+            if (oldest == null || oldest.deadline > clock.currentTimeMillis()) return;
+
+            if (oldest.attempts > MAX_RESEND) {
+                report(CardEvent.GAVE_UP_SENDING, oldest.frame.getHeader().getDestination(), window.base);
+                oldest.acknowledged = true;
+                window.slide();
+                return;
+            }
 
-                    // Transmit the ACK
-                    if (transmitObject instanceof ACK) {
-                        this.transmitAck((ACK) transmitObject);
-                        System.out.println("*** " + deviceName + " sent an ACK!");
-                        continue;
-                    }
+            oldest.attempts++;
+            rtt.backOff();
+            for (int offset = 0; offset < window.inFlight(); offset++) {
+                int sequence = (window.base + offset) % SEQUENCE_SPACE;
+                PendingFrame pending = window.pending.get(sequence);
+                pending.retransmitted = true;
+                report(CardEvent.RETRANSMIT, pending.frame.getHeader().getDestination(), sequence);
+                this.waitForIdleWire();
+                this.transmitFrame(pending.frame);
+            }
+            oldest.deadline = clock.currentTimeMillis() + rtt.getTimeout();
+        }
 
-                    // Unsupported object, ignore
-                    if (!(transmitObject instanceof DataFrame)) continue;
+        /*
+         * Resends every frame whose own timer has run out, giving up after MAX_RESEND attempts.
+         * The timeout only backs off for the oldest frame, not once for every frame in the window.
+         */
+        private void retransmitSelective(SendWindow window, RttEstimator rtt) throws InterruptedException {
+            for (int offset = 0; offset < window.inFlight(); offset++) {
+                int sequence = (window.base + offset) % SEQUENCE_SPACE;
+                PendingFrame pending = window.pending.get(sequence);
+                if (pending == null || pending.acknowledged || pending.deadline > clock.currentTimeMillis()) {
+                    continue;
+                }
 
-                    DataFrame frame = (DataFrame) transmitObject;
-                    frame.getHeader().setAck(currentAckNumber);
+                if (pending.attempts > MAX_RESEND) {
+                    report(CardEvent.GAVE_UP_SENDING, pending.frame.getHeader().getDestination(), sequence);
+                    pending.acknowledged = true;
+                    continue;
+                }
 
-                    // Transmit the frame for the first time
-                    this.transmitFrame(frame);
+                pending.attempts++;
+                pending.retransmitted = true;
+                if (offset == 0) rtt.backOff();
+                report(CardEvent.RETRANSMIT, pending.frame.getHeader().getDestination(), sequence);
+                this.waitForIdleWire();
+                this.transmitFrame(pending.frame);
+                pending.deadline = clock.currentTimeMillis() + rtt.getTimeout();
+            }
+            window.slide();
+        }
 
-                    // Wait for ACK before proceeding, resend if no ACK is received
-                    if (frame.getHeader().getDestination() == 0) {
-                        System.out.println("*** " + deviceName + " broadcasted a frame to everyone!");
-                    } else {
-                        System.out.println("*** " + deviceName + " sent a frame, waiting for ACK...");
-                        long startTime = System.currentTimeMillis();
-                        int attempts = 1;
-                        ackAwait:
-                        while (true) {
-                            if (System.currentTimeMillis() - startTime > TIMEOUT) {
-                                if (attempts > MAX_RESEND) {
-                                    System.out.println("*** " + deviceName + " exhausted all resend attempts! Giving up on frame...");
-                                    break;
-                                }
-                                attempts++;
-                                System.out.println("*** " + deviceName + " timed out while waiting for ACK! Resending frame...");
-                                transmitFrame(frame);
-                                startTime = System.currentTimeMillis();
-                            }
-                            for (Iterator<ACK> i = ackSet.iterator(); i.hasNext(); ) {
-                                ACK ack = i.next();
-                                if (ack.getDestination() == deviceNumber
-                                        && ack.getSource() == frame.getHeader().getDestination()) {
-                                    // Check if ACK is for the most recent request, otherwise ignore it
-                                    if (ack.getNumber() == currentAckNumber) {
-                                        System.out.println("*** " + deviceName + " received an ACK, moving on!");
-                                        currentAckNumber = 1 - currentAckNumber;
-                                        break ackAwait;
-                                    } else {
-                                        System.out.println("*** " + deviceName + " received duplicate ACK, ignoring...");
-                                    }
-                                    i.remove();
-                                }
-                            }
-                            sleep(TIMEOUT / 10);
-                        }
-                    }
+        /*
+         * Time until the earliest retransmission timer runs out. Go-Back-N only times the oldest frame.
+         */
+        private long timeUntilNextDeadline() {
+            long deadline = Long.MAX_VALUE;
+            for (SendWindow window : sendWindows.values()) {
+                if (arqMode == ArqMode.GO_BACK_N) {
+                    PendingFrame oldest = window.pending.get(window.base);
+                    if (oldest != null) deadline = Math.min(deadline, oldest.deadline);
+                    continue;
+                }
+                for (PendingFrame pending : window.pending.values()) {
+                    if (!pending.acknowledged) deadline = Math.min(deadline, pending.deadline);
                 }
-            } catch (InterruptedException except) {
-                System.out.println(deviceName + " Transmitter Thread Interrupted - terminated.");
             }
-
+            if (deadline == Long.MAX_VALUE) return Long.MAX_VALUE;
+            return Math.max(0, deadline - clock.currentTimeMillis());
         }
 
         public void transmitAck(ACK ack) throws InterruptedException {
-            if (ack != null) {
-                this.transmitBytes(ack.getTransmittedBytes());
+            if (ack == null) return;
+
+            if (errorCorrection != ErrorCorrection.NONE) {
+                this.transmitBytes(errorCorrection.encode(ack.getTransmittedBytes()));
+                return;
             }
+            frameBuffer.clear();
+            ack.encode(frameBuffer);
+            this.transmitBytes(frameBuffer.array(), frameBuffer.position());
         }
 
         /**
@@ -267,9 +1298,18 @@ public class NetworkCard {
          * @param frame Data frame to transmit across the network.
          */
         public void transmitFrame(DataFrame frame) throws InterruptedException {
-            if (frame != null) {
-                this.transmitBytes(frame.getTransmittedBytes());
+            if (frame == null) return;
+            this.piggybackAck(frame);
+            metrics.framesSent.incrementAndGet();
+            metrics.bytesSent.addAndGet(frame.getData().getLength());
+
+            if (errorCorrection != ErrorCorrection.NONE) {
+                this.transmitBytes(errorCorrection.encode(frame.getTransmittedBytes()));
+                return;
             }
+            frameBuffer.clear();
+            frame.encode(frameBuffer);
+            this.transmitBytes(frameBuffer.array(), frameBuffer.position());
         }
 
     }
@@ -280,60 +1320,121 @@ public class NetworkCard {
     private class RXThread extends CommThread {
 
         /**
-         * Map of ACK numbers from different hosts
+         * Map of ACK numbers from different hosts. In Go-Back-N mode this holds the
+         * next sequence number expected from each host instead.
          */
         private HashMap<Integer, Integer> ackMap = new HashMap<>();
 
+        // Number of the last broadcast from each host, kept apart from the ACK numbers of its other frames.
+        private final HashMap<Integer, Integer> lastBroadcasts = new HashMap<>();
+
+        // Go-Back-N: time since which each host has only been sending frames out of sequence.
+        private final HashMap<Integer, Long> outOfSequenceSince = new HashMap<>();
+
+        // Selective repeat reorder buffers for frames from each source.
+        private final HashMap<Integer, ReceiveWindow> receiveWindows = new HashMap<>();
+
+        // Pooled frame the next frame is received into, reused until it is passed on.
+        private DataFrame spare;
+
         public void run() {
 
             try {
 
+                // Room for the longest frame there can be, anything longer is noise or two frames run together.
+                // Without error correction frames are received straight into the buffer of a pooled frame.
+                byte[] encodedPayload = null;
+                if (errorCorrection != ErrorCorrection.NONE) {
+                    encodedPayload = new byte[errorCorrection.encodedLength(MAX_FRAME_SIZE)];
+                }
+
                 // Listen for data frames.
 
                 while (true) {
 
-                    byte[] bytePayload = new byte[MAX_PAYLOAD_SIZE];
+                    if (spare == null) spare = framePool.take();
+                    byte[] bytePayload = encodedPayload != null ? encodedPayload : spare.getBuffer();
                     int bytePayloadIndex = 0;
-                    byte receivedByte;
+                    int receivedByte;
+                    boolean carrierLost = false;
+                    boolean tooLong = false;
+
+                    if (synchronousFraming) this.awaitSyncWord();
 
                     // Updated this part of the code to unstuff bytes correctly
                     while (true) {
-                        receivedByte = receiveByte();
+                        receivedByte = this.nextByte();
 
-                        if ((receivedByte & 0xFF) == 0x7E) break;
+                        if (receivedByte < 0) {
+                            carrierLost = true;
+                            break;
+                        }
+
+                        if (receivedByte == ByteStuffing.FLAG) break;
 
-                        System.out.println(deviceName + " RECEIVED BYTE = " + Integer.toHexString(receivedByte & 0xFF));
+                        report(CardEvent.BYTE_RECEIVED, -1, receivedByte);
 
                         // Unstuff if escaped.
-                        if (receivedByte == 0x7D) {
-                            receivedByte = receiveByte();
-                            System.out.println(deviceName + " ESCAPED RECEIVED BYTE = " + Integer.toHexString(receivedByte & 0xFF));
+                        if (receivedByte == ByteStuffing.ESCAPE) {
+                            receivedByte = this.nextByte();
+                            if (receivedByte < 0) {
+                                carrierLost = true;
+                                break;
+                            }
+                            report(CardEvent.BYTE_RECEIVED, -1, receivedByte);
+                        }
+
+                        // Keep reading up to the end of the frame, but drop it.
+                        if (bytePayloadIndex == bytePayload.length) {
+                            tooLong = true;
+                            continue;
                         }
 
-                        bytePayload[bytePayloadIndex] = receivedByte;
+                        bytePayload[bytePayloadIndex] = (byte) receivedByte;
                         bytePayloadIndex++;
 
                     }
 
-                    byte[] relevantBytes = Arrays.copyOfRange(bytePayload, 0, bytePayloadIndex);
+                    if (carrierLost) {
+                        report(CardEvent.CARRIER_LOST, -1, -1);
+                        continue;
+                    }
+
+                    if (tooLong) {
+                        report(CardEvent.FRAME_TOO_LONG, -1, -1);
+                        continue;
+                    }
+
+                    // Answering before the sender has finished its last pulse would run over it.
+                    if (synchronousFraming) this.awaitEndOfFrame();
+
+                    int length = this.correctErrors(bytePayload, bytePayloadIndex, spare.getBuffer());
+                    if (length < 0) continue;
 
                     // If its an acknowledgement that is addressed to us, add it to the set, otherwise treat it as a frame
-                    if (relevantBytes.length == 5) {
+                    if (length == 5) {
 
-                        ACK receivedAck = ACK.fromReceivedBytes(relevantBytes);
+                        ACK receivedAck = takeAck();
+                        receivedAck.read(spare.getBuffer());
 
                         if(!receivedAck.verifyChecksum()) {
-                            System.out.println("*** " + deviceName + " received corrupted ACK! Ignoring.");
+                            report(CardEvent.CORRUPTED_ACK, -1, -1);
+                            releaseAck(receivedAck);
+                            continue;
                         }
 
                         // ACK is not addressed to us. Ignore.
-                        if (receivedAck.getDestination() != deviceNumber) continue;
+                        if (receivedAck.getDestination() != deviceNumber) {
+                            releaseAck(receivedAck);
+                            continue;
+                        }
 
-                        ackSet.add(receivedAck);
+                        this.passOnAck(receivedAck);
                         continue;
                     }
 
-                    DataFrame frame = DataFrame.createFromReceivedBytes(relevantBytes);
+                    // Decoded in place, the header and payload stay views of the received bytes.
+                    DataFrame frame = spare.readBuffer(length) ? spare : null;
 
                     // Check if data frame is corrupted
                     if (frame == null
@@ -341,7 +1442,7 @@ public class NetworkCard {
                             || !frame.getHeader().verifyChecksum()
                             || frame.getData() == null
                             || !frame.getData().verifyChecksum()) {
-                        System.out.println("*** " + deviceName + " received corrupted data frame! Ignoring.");
+                        report(CardEvent.CORRUPTED_FRAME, -1, -1);
                         continue;
                     }
 
@@ -350,130 +1451,569 @@ public class NetworkCard {
                     // Check if data frame addressed to us
                     int destination = header.getDestination();
                     if (destination != deviceNumber && destination != 0) {
-                        System.out.println(
-                                "*** " + deviceName + " received data frame addressed to " + destination + ". Ignoring."
-                        );
+                        report(CardEvent.FRAME_NOT_ADDRESSED, destination, -1);
+                        continue;
+                    }
+
+                    // Pass on an ACK carried in the header, even if the frame itself turns out to be a duplicate
+                    if (destination == deviceNumber && header.hasPiggybackAck()) {
+                        ACK piggybackedAck = takeAck();
+                        piggybackedAck.set(header.getSource(), deviceNumber, header.getPiggybackAck());
+                        this.passOnAck(piggybackedAck);
+                    }
+
+                    if (destination == 0) {
+                        this.receiveBroadcast(frame);
+                        continue;
+                    }
+
+                    if (arqMode == ArqMode.SELECTIVE_REPEAT) {
+                        this.receiveSelective(frame);
+                        continue;
+                    }
+
+                    if (arqMode == ArqMode.GO_BACK_N) {
+                        this.receiveGoBackN(frame);
                         continue;
                     }
 
                     // Check if we've already processed this frame (we might have to send the ACK anyway)
                     Integer lastAckNumber = ackMap.get(header.getSource());
                     if (lastAckNumber != null && lastAckNumber == header.getAck()) {
-                        // We've already processed this frame, ignore it
-                        System.out.println("*** " + deviceName + " received duplicate frame! Sending ACK and ignoring contents.");
+                        // We've already processed this frame, our ACK must have been lost
+                        report(CardEvent.DUPLICATE_FRAME, header.getSource(), header.getAck());
+                        queueAck(header.getSource(), header.getAck());
                         continue;
                     }
-                    ackMap.put(header.getSource(), header.getAck());
+                    ackMap.put(header.getSource(), boxed(header.getAck()));
 
-                    // Block receiving data if queue full
-                    inputQueue.put(frame);
+                    this.deliver(frame);
 
-                    if (destination == 0) {
-                        System.out.println(
-                                "*** " + deviceName + " received a frame from " + header.getSource() + " addressed to everyone, not sending an ACK."
-                        );
-                    } else {
-                        // Frame is not corrupted and is addressed to us, send ACK
-                        System.out.println(
-                                "*** " + deviceName + " received a frame from " + header.getSource() + ", adding ACK to queue!"
-                        );
-                        ACK ack = new ACK(
-                                header.getDestination(),
-                                header.getSource(),
-                                header.getAck()
-                        );
-                        outputQueue.add(ack);
-                    }
+                    // Frame is not corrupted and is addressed to us, send ACK
+                    report(CardEvent.FRAME_RECEIVED, header.getSource(), header.getAck());
+                    queueAck(header.getSource(), header.getAck());
                 }
 
             } catch (InterruptedException except) {
-                System.out.println(deviceName + " Interrupted: " + getName());
+                report(CardEvent.STOPPED, -1, -1);
             } catch (Exception e) {
                 System.out.println(e.getMessage());
+            } finally {
+                clock.unregister(Thread.currentThread());
             }
 
         }
 
+        /*
+         * Hands an ACK addressed to this card to the transmitter.
+         */
+        private void passOnAck(ACK ack) {
+            ack.setReceivedTime(clock.currentTimeMillis());
+            if (!clock.offer(receivedAcks, ack)) {
+                releaseAck(ack);
+                return;
+            }
+            wakeTransmitter();
+        }
+
+        /*
+         * Passes on a broadcast unless it repeats the last one from the same host. Broadcasts
+         * are numbered apart from the frames a host sends to us alone, so neither upsets the
+         * duplicate check or the receive window of the other.
+         */
+        private void receiveBroadcast(DataFrame frame) throws InterruptedException {
+            DataFrame.Header header = frame.getHeader();
+
+            Integer last = lastBroadcasts.get(header.getSource());
+            // Nobody waits for an ACK to a broadcast, one would only take up the wire.
+            if (last != null && last == header.getAck()) {
+                report(CardEvent.DUPLICATE_FRAME, header.getSource(), header.getAck());
+                return;
+            }
+            lastBroadcasts.put(header.getSource(), boxed(header.getAck()));
+
+            this.deliver(frame);
+            report(CardEvent.BROADCAST_RECEIVED, header.getSource(), -1);
+        }
+
+        /*
+         * Passes a received frame on to the input queue, once all fragments are there
+         * if it is part of a larger message.
+         */
+        private void deliver(DataFrame frame) throws InterruptedException {
+            metrics.framesReceived.incrementAndGet();
+            metrics.bytesReceived.addAndGet(frame.getData().getLength());
+
+            if (frame.getHeader().isFragment()) {
+                DataFrame whole = reassembly.add(frame, clock.currentTimeMillis());
+
+                // The reassembly buffer keeps a copy of the payload, so the fragment can be reused.
+                if (frame != spare) frame.release();
+                if (whole == null) return;
+                frame = whole;
+            }
+
+            // The frame belongs to whoever receives it now.
+            if (frame == spare) spare = null;
+
+            // Block receiving data if queue full
+            clock.put(inputQueue, frame);
+        }
+
+        /*
+         * Receives the next byte of the current frame, or returns -1 if the sender has
+         * gone quiet before the end of a synchronous frame.
+         */
+        private int nextByte() throws InterruptedException {
+            if (synchronousFraming) return this.receiveSynchronousByte();
+            return receiveByte() & 0xFF;
+        }
+
+        /*
+         * Undoes the forward error correction of the first length received bytes, putting
+         * the frame into decoded. Returns the length of the frame, or -1 if it has more
+         * errors than can be corrected.
+         */
+        private int correctErrors(byte[] bytes, int length, byte[] decoded) {
+            if (errorCorrection == ErrorCorrection.NONE) return length;
+
+            int decodedLength = errorCorrection.decodedLength(length);
+            int corrected = -1;
+            if (decodedLength >= 0 && decodedLength <= decoded.length) {
+                corrected = errorCorrection.decode(bytes, length, decoded);
+            }
+
+            if (corrected < 0) {
+                report(CardEvent.UNCORRECTABLE_FRAME, -1, -1);
+                return -1;
+            }
+            if (corrected > 0) {
+                report(CardEvent.ERRORS_CORRECTED, -1, corrected);
+            }
+            return decodedLength;
+        }
+
+        /*
+         * Acknowledges every frame inside the receive window and buffers frames that arrive
+         * out of order, so that they are still put on the input queue in sequence.
+         */
+        private void receiveSelective(DataFrame frame) throws InterruptedException {
+            DataFrame.Header header = frame.getHeader();
+            int source = header.getSource();
+            int sequence = header.getAck();
+
+            ReceiveWindow window = receiveWindows.get(source);
+            if (window == null) {
+                window = new ReceiveWindow();
+                receiveWindows.put(source, window);
+            }
+
+            // The sender gives up on a frame eventually, stop waiting for it once it must have.
+            if (window.bufferedCount > 0
+                    && clock.currentTimeMillis() - window.gapSince > giveUpTime) {
+                report(CardEvent.GAVE_UP_WAITING, source, window.expected);
+                while (window.buffered[window.expected] == null) {
+                    window.expected = (window.expected + 1) % SEQUENCE_SPACE;
+                }
+                this.deliverInOrder(window);
+            }
+
+            int offset = sequenceOffset(window.expected, sequence);
+            if (offset >= windowSize) {
+                if (offset >= SEQUENCE_SPACE - windowSize) {
+                    // Already delivered, our ACK must have been lost.
+                    report(CardEvent.DUPLICATE_FRAME, source, sequence);
+                    queueAck(source, sequence);
+                } else {
+                    report(CardEvent.FRAME_OUTSIDE_WINDOW, source, sequence);
+                }
+                return;
+            }
+
+            queueAck(source, sequence);
+
+            if (window.buffered[sequence] != null) {
+                report(CardEvent.DUPLICATE_FRAME, source, sequence);
+                return;
+            }
+
+            report(CardEvent.FRAME_RECEIVED, source, sequence);
+            if (window.bufferedCount == 0) window.gapSince = clock.currentTimeMillis();
+            window.buffered[sequence] = frame;
+            window.bufferedCount++;
+            if (frame == spare) spare = null;
+            this.deliverInOrder(window);
+        }
+
+        /*
+         * Only accepts the next frame in sequence, every other frame is dropped and answered
+         * with a cumulative ACK for the last frame accepted.
+         */
+        private void receiveGoBackN(DataFrame frame) throws InterruptedException {
+            DataFrame.Header header = frame.getHeader();
+            int source = header.getSource();
+            int sequence = header.getAck();
+
+            Integer expected = ackMap.get(source);
+            if (expected == null) expected = 0;
+
+            if (sequence != expected) {
+                // The sender gives up on a frame eventually, catch up with it once it must have.
+                Long since = outOfSequenceSince.get(source);
+                if (since == null) {
+                    outOfSequenceSince.put(source, clock.currentTimeMillis());
+                } else if (clock.currentTimeMillis() - since > giveUpTime) {
+                    report(CardEvent.GAVE_UP_WAITING, source, expected);
+                    expected = sequence;
+                }
+            }
+
+            if (sequence != expected) {
+                report(CardEvent.FRAME_OUT_OF_SEQUENCE, source, sequence);
+                if (ackMap.containsKey(source)) {
+                    queueAck(source, (expected - 1 + SEQUENCE_SPACE) % SEQUENCE_SPACE);
+                }
+                return;
+            }
+
+            report(CardEvent.FRAME_RECEIVED, source, sequence);
+            ackMap.put(source, boxed((sequence + 1) % SEQUENCE_SPACE));
+            outOfSequenceSince.remove(source);
+            queueAck(source, sequence);
+
+            this.deliver(frame);
+        }
+
+        /*
+         * Hands over all buffered frames which are next in sequence.
+         */
+        private void deliverInOrder(ReceiveWindow window) throws InterruptedException {
+            DataFrame next;
+            boolean delivered = false;
+            while ((next = window.buffered[window.expected]) != null) {
+                window.buffered[window.expected] = null;
+                window.bufferedCount--;
+                this.deliver(next);
+                window.expected = (window.expected + 1) % SEQUENCE_SPACE;
+                delivered = true;
+            }
+            if (delivered) window.gapSince = clock.currentTimeMillis();
+        }
+
     }
 
     /**
-     * Implements methods for transmitting and receiving bytes
+     * Implements methods for transmitting and receiving bytes, run on a thread made by the
+     * card's thread factory.
      */
-    private class CommThread extends Thread {
+    private abstract class CommThread implements Runnable {
+
+        // Thread running this, made by start().
+        private Thread thread;
+
+        // Samples of the symbols of the byte being received.
+        private final double[] samples = new double[16];
+
+        // Synchronous receiver: last symbol sampled, half the width of that symbol and the
+        // shift of the sampling point still to be applied to follow the sender's clock.
+        private double lastSample;
+        private int lastHalfWidth;
+        private int clockCorrection;
+
+        // CSMA/CD: whether the wire is being checked for collisions while sending, whether
+        // one has been found, and random numbers for the backoff.
+        private boolean sensing = false;
+        private boolean collided = false;
+        private final SplittableRandom random = new SplittableRandom();
+
+        public void start() {
+            thread = threadFactory.newThread(this);
+            thread.setName(deviceName + (this instanceof TXThread ? " TX" : " RX"));
+            clock.register(thread);
+            thread.start();
+        }
+
+        public void interrupt() {
+            if (thread != null) clock.interrupt(thread);
+        }
+
+        public void join() throws InterruptedException {
+            if (thread != null) thread.join();
+        }
 
         protected void transmitBytes(byte[] bytes) throws InterruptedException {
+            this.transmitBytes(bytes, bytes.length);
+        }
+
+        /*
+         * Sends the first length bytes of the array as one frame.
+         */
+        protected void transmitBytes(byte[] bytes, int length) throws InterruptedException {
+            if (mediumAccess == MediumAccess.TDMA) {
+                this.awaitTimeSlot(this.transmissionTime(bytes, length));
+            }
+            if (mediumAccess != MediumAccess.CSMA_CD) {
+                this.transmitFrameBytes(bytes, length);
+                return;
+            }
+
+            for (int collision = 1; ; collision++) {
+                this.waitForIdleWire();
+
+                sensing = true;
+                collided = false;
+                this.transmitFrameBytes(bytes, length);
+                sensing = false;
+                if (!collided) return;
+
+                report(CardEvent.COLLISION, -1, collision);
+
+                // A frame delimiter as the jam signal makes receivers drop the partial frame,
+                // rather than running it into the next one.
+                collided = false;
+                this.transmitFrameByte((byte) ByteStuffing.FLAG);
+                wire.setVoltage(wireConnection, 0);
+
+                if (collision == MAX_COLLISIONS) {
+                    report(CardEvent.FRAME_ABORTED, -1, collision);
+                    return;
+                }
+                int slots = random.nextInt(1 << Math.min(collision, MAX_BACKOFF_EXPONENT));
+                clock.sleep((long) slots * SLOT_TIME);
+            }
+        }
+
+        /*
+         * Waits until a transmission of the given length fits into the rest of the card's
+         * time slot. Transmissions too long for any slot wait for the start of the next one.
+         */
+        private void awaitTimeSlot(long duration) throws InterruptedException {
+            long cycle = (long) timeSlots * slotTime;
+            long now = clock.currentTimeMillis();
+
+            // Start of the card's latest slot, which may be going on right now.
+            long start = now - Math.floorMod(now - (long) timeSlot * slotTime, cycle);
+            if (now > start && now + duration > start + slotTime - GUARD_TIME) start += cycle;
+
+            if (start > now) clock.sleep(start - now);
+        }
+
+        /*
+         * Time it takes to put the given frame on the wire, in milliseconds.
+         */
+        private long transmissionTime(byte[] bytes, int length) {
+            // Count the escape bytes and the closing frame delimiter.
+            int frameBytes = ByteStuffing.stuffedLength(bytes, length) + 1;
+
+            long byteTime = (long) lineCoding.getSymbolsPerByte() * lineCoding.getSymbolWidth(PULSE_WIDTH);
+            if (synchronousFraming) return PULSE_WIDTH * 4 + PULSE_WIDTH * 8 + frameBytes * byteTime;
+            return PULSE_WIDTH * 4 + frameBytes * (PULSE_WIDTH * 5 + byteTime);
+        }
+
+        /*
+         * Puts a whole frame on the wire, stopping early if a collision is detected.
+         */
+        private void transmitFrameBytes(byte[] bytes, int length) throws InterruptedException {
             // Low voltage signal to get ready ...
-            wire.setVoltage(deviceName, LOW_VOLTAGE);
-            sleep(PULSE_WIDTH * 4);
+            this.drive(LOW_VOLTAGE, PULSE_WIDTH * 4);
+
+            if (synchronousFraming) {
+                // One sync word for the whole frame, then the bytes follow back to back.
+                for (int bit = 7; bit >= 0 && !collided; bit--) {
+                    this.drive(((SYNC_WORD >> bit) & 1) != 0 ? HIGH_VOLTAGE : LOW_VOLTAGE, PULSE_WIDTH);
+                }
+            }
 
             // Send bytes in asynchronous style with 0.2 seconds gaps between them.
-            for (byte _byte : bytes) {
+            for (int i = 0; i < length; i++) {
+                byte _byte = bytes[i];
+                if (collided) return;
 
                 // Byte stuff if required.
-                if (_byte == 0x7E || _byte == 0x7D)
-                    transmitByte((byte) 0x7D);
+                if (ByteStuffing.needsEscape(_byte))
+                    transmitFrameByte((byte) ByteStuffing.ESCAPE);
 
-                transmitByte(_byte);
+                transmitFrameByte(_byte);
             }
+            if (collided) return;
 
             // Append a 0x7E to terminate frame.
-            transmitByte((byte) 0x7E);
+            transmitFrameByte((byte) ByteStuffing.FLAG);
+
+            wire.setVoltage(wireConnection, 0);
+        }
+
+        private void transmitFrameByte(byte value) throws InterruptedException {
+            if (collided) return;
 
-            wire.setVoltage(deviceName, 0);
+            if (synchronousFraming) {
+                transmitSymbols(value);
+            } else {
+                transmitByte(value);
+            }
+        }
+
+        /*
+         * Listens to the wire until nobody has been driving it for IDLE_GAP milliseconds.
+         * Thermal noise averages out to well below the signal level over the gap.
+         */
+        protected void waitForIdleWire() throws InterruptedException {
+            int samplesPerGap = IDLE_GAP / (PULSE_WIDTH / 10);
+            double total = 0.0;
+            int samples = 0;
+
+            while (true) {
+                clock.sleep(PULSE_WIDTH / 10);
+                total += Math.abs(wire.getVoltage(wireConnection));
+                samples++;
+
+                if (samples == samplesPerGap) {
+                    if (total / samples < HIGH_VOLTAGE / 2) return;
+                    total = 0.0;
+                    samples = 0;
+                }
+            }
         }
 
         protected void transmitByte(byte value) throws InterruptedException {
 
             // Low voltage signal ...
-            wire.setVoltage(deviceName, LOW_VOLTAGE);
-            sleep(PULSE_WIDTH * 4);
+            this.drive(LOW_VOLTAGE, PULSE_WIDTH * 4);
+            if (collided) return;
 
             // Set initial pulse for asynchronous transmission.
-            wire.setVoltage(deviceName, HIGH_VOLTAGE);
-            sleep(PULSE_WIDTH);
-
-            // Go through bits in the value (big-endian bits first) and send pulses.
-
-            for (int bit = 0; bit < 8; bit++) {
-                if ((value & 0x80) == 0x80) {
-                    wire.setVoltage(deviceName, HIGH_VOLTAGE);
-                } else {
-                    wire.setVoltage(deviceName, LOW_VOLTAGE);
-                }
+            this.drive(HIGH_VOLTAGE, PULSE_WIDTH);
+            if (collided) return;
 
+            transmitSymbols(value);
+        }
 
-                // Shift value.
-                value <<= 1;
+        /*
+         * Go through the symbols of the value (big-endian bits first) and send pulses.
+         */
+        private void transmitSymbols(byte value) throws InterruptedException {
+            int symbolWidth = lineCoding.getSymbolWidth(PULSE_WIDTH);
+            for (int symbol = 0; symbol < lineCoding.getSymbolsPerByte() && !collided; symbol++) {
+                this.drive(lineCoding.getVoltage(value, symbol, LOW_VOLTAGE, HIGH_VOLTAGE), symbolWidth);
+            }
+        }
 
-                sleep(PULSE_WIDTH);
+        /*
+         * Holds a voltage on the wire for the given time. While sensing for collisions, the
+         * wire is checked halfway through, anything far from our own voltage by then is
+         * another card sending at the same time.
+         */
+        private void drive(double voltage, int duration) throws InterruptedException {
+            wire.setVoltage(wireConnection, voltage);
+            if (!sensing) {
+                clock.sleep(duration);
+                return;
             }
+
+            clock.sleep(duration / 2);
+            if (Math.abs(wire.getVoltage(wireConnection) - voltage) > COLLISION_THRESHOLD) collided = true;
+            clock.sleep(duration - duration / 2);
         }
 
         protected byte receiveByte() throws InterruptedException {
 
             double thresholdVoltage = (LOW_VOLTAGE + 2.0 * HIGH_VOLTAGE) / 3;
-            byte value = 0;
 
-            while (wire.getVoltage(deviceName) < thresholdVoltage) {
-                sleep(PULSE_WIDTH / 10);
+            while (wire.getVoltage(wireConnection) < thresholdVoltage) {
+                clock.sleep(PULSE_WIDTH / 10);
             }
 
-            // Sleep till middle of next pulse.
-            sleep(PULSE_WIDTH + PULSE_WIDTH / 2);
+            // Sleep till middle of the first symbol after the start pulse.
+            int symbolWidth = lineCoding.getSymbolWidth(PULSE_WIDTH);
+            clock.sleep(PULSE_WIDTH + symbolWidth / 2);
+
+            // Sample the next symbols for the byte.
+            for (int i = 0; i < lineCoding.getSymbolsPerByte(); i++) {
+                samples[i] = wire.getVoltage(wireConnection);
+                clock.sleep(symbolWidth);
+            }
+
+            return lineCoding.decode(samples, LOW_VOLTAGE, HIGH_VOLTAGE);
+        }
 
-            // Use 8 next pulses for byte.
-            for (int i = 0; i < 8; i++) {
+        /*
+         * Waits for the sync word starting a synchronous frame and locks onto the sender's
+         * clock, leaving the sampling point in the middle of the last pulse of the sync word.
+         */
+        protected void awaitSyncWord() throws InterruptedException {
+            double thresholdVoltage = (LOW_VOLTAGE + 2.0 * HIGH_VOLTAGE) / 3;
 
-                value *= 2;
+            while (true) {
+                // Wait for a rising edge, the wire may still be high from the end of the last frame.
+                while (wire.getVoltage(wireConnection) >= thresholdVoltage) {
+                    clock.sleep(PULSE_WIDTH / 10);
+                }
+                while (wire.getVoltage(wireConnection) < thresholdVoltage) {
+                    clock.sleep(PULSE_WIDTH / 10);
+                }
 
-                if (wire.getVoltage(deviceName) > thresholdVoltage) {
-                    value += 1;
+                // Move to the middle of the bit, then slide along the bits until they match
+                // the sync word, in case the edge was noise just before it.
+                clock.sleep(PULSE_WIDTH / 2);
+                lastSample = wire.getVoltage(wireConnection);
+                lastHalfWidth = PULSE_WIDTH / 2;
+                clockCorrection = 0;
+
+                int word = lastSample > thresholdVoltage ? 1 : 0;
+                for (int bit = 1; bit < 16; bit++) {
+                    double voltage = this.sampleSymbol(PULSE_WIDTH);
+                    word = (word << 1 | (voltage > thresholdVoltage ? 1 : 0)) & 0xFF;
+                    if (word == SYNC_WORD) return;
                 }
+            }
+        }
+
+        /*
+         * Receives a byte of a synchronous frame, straight after the previous one.
+         * Returns -1 if the wire has gone quiet, i.e. the sender has stopped.
+         */
+        protected int receiveSynchronousByte() throws InterruptedException {
+            int symbolWidth = lineCoding.getSymbolWidth(PULSE_WIDTH);
+            double total = 0.0;
+            for (int i = 0; i < lineCoding.getSymbolsPerByte(); i++) {
+                samples[i] = this.sampleSymbol(symbolWidth);
+                total += Math.abs(samples[i]);
+            }
+
+            // Every coding keeps well away from 0 V while a frame is being sent.
+            if (total / lineCoding.getSymbolsPerByte() < HIGH_VOLTAGE / 4) return -1;
+
+            return lineCoding.decode(samples, LOW_VOLTAGE, HIGH_VOLTAGE) & 0xFF;
+        }
 
-                sleep(PULSE_WIDTH);
+        /*
+         * Waits out the rest of the last symbol of a synchronous frame.
+         */
+        protected void awaitEndOfFrame() throws InterruptedException {
+            clock.sleep(lastHalfWidth);
+        }
+
+        /*
+         * Samples the middle of the next symbol, and the boundary before it to recover the clock.
+         * Whenever the level changes, the boundary sample shows whether the sampling point is
+         * early (still at the old level) or late (already at the new one), and the next symbol
+         * is sampled a little later or earlier to follow the sender.
+         */
+        private double sampleSymbol(int symbolWidth) throws InterruptedException {
+            clock.sleep(Math.max(1, lastHalfWidth + clockCorrection));
+            double edge = wire.getVoltage(wireConnection);
+            clock.sleep(symbolWidth / 2);
+            double sample = wire.getVoltage(wireConnection);
+
+            clockCorrection = 0;
+            if (Math.abs(sample - lastSample) > (HIGH_VOLTAGE - LOW_VOLTAGE) / 6) {
+                boolean early = Math.abs(edge - lastSample) < Math.abs(edge - sample);
+                clockCorrection = early ? CLOCK_STEP : -CLOCK_STEP;
             }
 
-            return value;
+            lastSample = sample;
+            lastHalfWidth = symbolWidth / 2;
+            return sample;
         }
 
     }
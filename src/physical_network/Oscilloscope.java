@@ -7,7 +7,12 @@
 
 package physical_network;
 
-import org.jfree.ui.RefineryUtilities;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 
@@ -15,27 +20,99 @@ import org.jfree.ui.RefineryUtilities;
  * Essentially it periodically gets the value of the voltage
  * on the wire and sets this value on the oscilloscope.
  *
+ * Samples are kept in a ring of fixed size which the oscilloscope
+ * panel draws from. Headless, there is no panel and the samples can
+ * be read from the ring or recorded to a stream instead.
+ *
  * @author K. Bryson
  */
 class Oscilloscope extends Thread {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SAMPLE_PERIOD = 10;
     
 	private final String deviceName;
     private final TwistedWirePair wire;
-    private final OscilloscopePanel panel;
+    private final int connection;
+    private final Clock clock;
+
+    private boolean headless = false;
+    private int capacity = DEFAULT_CAPACITY;
+    private Writer recording;
+    private boolean started = false;
+
+    private SampleRing samples;
+
+    // First error writing the recording, after which nothing more is written.
+    private volatile IOException recordingError;
     
     public Oscilloscope(String deviceName, TwistedWirePair wire) {
         
     	this.deviceName = deviceName;    	
         this.wire = wire;
-        
-        // Create the Oscilloscope panel and make it visible.        
-        this.panel = new OscilloscopePanel();  
+        this.connection = wire.connect(deviceName);
+        this.clock = wire.getClock();
+    }
+
+    /**
+     * Runs without a panel, so without Swing or JFreeChart. Must be called before start().
+     */
+    public void setHeadless(boolean headless) {
+        checkNotStarted();
+        this.headless = headless;
+    }
+
+    /**
+     * Sets how many of the latest samples are kept. Must be called before start().
+     */
+    public void setCapacity(int capacity) {
+        checkNotStarted();
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Also writes every sample to the stream as a line of text with the clock time in
+     * milliseconds and the voltage, separated by a comma. Must be called before start().
+     */
+    public void setRecording(OutputStream out) {
+        checkNotStarted();
+        this.recording = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+    }
 
-        panel.pack();
-        RefineryUtilities.centerFrameOnScreen(panel);
-        panel.setVisible(true);
+    /**
+     * @return The latest samples, once started.
+     */
+    public SampleRing getSamples() {
+        return samples;
     }
 
+    /**
+     * Writes out the recorded samples buffered so far.
+     *
+     * @throws IOException The first error writing the recording, if there was one.
+     */
+    public void flush() throws IOException {
+        if (recording != null && recordingError == null) recording.flush();
+        if (recordingError != null) throw recordingError;
+    }
+
+    private void checkNotStarted() {
+        if (started) throw new IllegalStateException(deviceName + " has already been started.");
+    }
+
+    @Override
+    public synchronized void start() {
+        started = true;
+        samples = new SampleRing(capacity);
+
+        // Create the Oscilloscope panel and make it visible.
+        if (!headless) OscilloscopePanel.open(clock.currentTimeMillis(), samples);
+
+        clock.register(this);
+        super.start();
+    }
     
     @Override
     public void run() {
@@ -44,15 +121,35 @@ class Oscilloscope extends Thread {
         	
         	while (true) {
                 
-                double voltage = wire.getVoltage(deviceName);                
-                panel.setVoltage(voltage);
+                long time = clock.currentTimeMillis();
+                double voltage = wire.getVoltage(connection);
+                samples.record(time, voltage);
+                if (recording != null && recordingError == null) record(time, voltage);
                 
-                sleep(10);
+                clock.sleep(SAMPLE_PERIOD);
             }
 
         } catch (InterruptedException except) {
             System.out.println("Netword Card Interrupted: " + getName());
+        } finally {
+            try {
+                flush();
+            } catch (IOException except) {
+                // Kept for the next call to flush().
+            }
+            clock.unregister(this);
         }
         
     }
+
+    private void record(long time, double voltage) {
+        try {
+            recording.write(Long.toString(time));
+            recording.write(',');
+            recording.write(Double.toString(voltage));
+            recording.write('\n');
+        } catch (IOException except) {
+            recordingError = except;
+        }
+    }
 }
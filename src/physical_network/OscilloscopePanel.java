@@ -1,8 +1,8 @@
 /*
  * 
  * Uses JFreeChart to make a panel that behaves like an oscilloscope.
- * The Oscilloscope scans over 10 seconds periods where the voltage on
- * the oscilloscope can be changed by the setVoltage method.
+ * The Oscilloscope scans over 10 seconds periods, showing the samples
+ * recorded in a SampleRing.
  * 
  *  (c) K.Bryson, Dept. of Computer Science, UCL (2016)
  *  
@@ -35,9 +35,10 @@ package physical_network;
  * in the United States and other countries.]
  *
  */
-import java.util.Date;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
@@ -50,21 +51,49 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import org.jfree.ui.ApplicationFrame;
+import org.jfree.ui.RefineryUtilities;
 
 class OscilloscopePanel extends ApplicationFrame {
 
 	private static final long serialVersionUID = 1L;
-	
-	private Date startDate = new Date();
-    private long startTime = startDate.getTime();
-    private XYSeries voltages = new XYSeries("Voltages");
 
-    public OscilloscopePanel() {
+    private static final long SWEEP_TIME = 10000;
+    private static final int FRAME_RATE = 25;
+
+    // One column per pixel across the chart.
+    private static final int COLUMNS = 500;
+
+    private final long startTime;
+    private final SampleRing samples;
+    private final XYSeries voltages = new XYSeries("Voltages");
+
+    // Lowest and highest voltage in each column of the sweep being drawn.
+    private final double[] min = new double[COLUMNS];
+    private final double[] max = new double[COLUMNS];
+
+    // Latest sample drawn so far, to skip frames in which nothing has changed.
+    private long drawnTime = Long.MIN_VALUE;
+
+    /**
+     * Makes a panel and shows it in the middle of the screen.
+     */
+    static void open(long startTime, SampleRing samples) {
+        OscilloscopePanel panel = new OscilloscopePanel(startTime, samples);
+        panel.pack();
+        RefineryUtilities.centerFrameOnScreen(panel);
+        panel.setVisible(true);
+    }
+
+    /**
+     * @param startTime Clock time in milliseconds at which the first sweep starts.
+     * @param samples   Samples to show, recorded by another thread.
+     */
+    public OscilloscopePanel(long startTime, SampleRing samples) {
 
         super("Oscilloscope");
 
-        // Set initial (time, voltage) datapoint of (0.0, 0.0).
-        voltages.add(0.0, 0.0);
+        this.startTime = startTime;
+        this.samples = samples;
 
         XYSeriesCollection dataset = new XYSeriesCollection();
         dataset.addSeries(voltages);
@@ -99,34 +128,38 @@ class OscilloscopePanel extends ApplicationFrame {
         chartPanel.setPreferredSize(new java.awt.Dimension(500, 300));
 
         setContentPane(chartPanel);
+
+        // Redraw on the event dispatch thread at a fixed frame rate, however fast the samples come.
+        Timer timer = new Timer(1000 / FRAME_RATE, new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                refresh();
+            }
+        });
+        timer.start();
     }
 
-    
-    /**
-     * This sets the voltage value at a particular point in term on the oscilloscope.
-     * If it sweeps over the end then it resets and goes back to the start.
-     * 
-     * @param voltage Value to set on the oscilloscope.
+    /*
+     * Draws the current sweep up to the latest sample, as a vertical line from the lowest
+     * to the highest voltage in each column so that no spike is lost however many samples
+     * a column has.
      */
-    void setVoltage(double voltage) {
-    	
-    	Date currentDate = new Date();
-    	double currentTime = (currentDate.getTime() - startTime) / 1000.0;
-        
-        if (currentTime > 10.0) {
-        	
-        	startTime = currentDate.getTime();
-        	currentTime = 0.0;
-        	
-        	Runnable clearData = new Runnable() {
-                public void run() {
-                	voltages.clear();
-                }
-            };        	
-        	
-        	SwingUtilities.invokeLater(clearData);
+    private void refresh() {
+        long latest = samples.getLatestTime();
+        if (latest == drawnTime) return;
+        drawnTime = latest;
+
+        long sweepStart = startTime + Math.floorDiv(latest - startTime, SWEEP_TIME) * SWEEP_TIME;
+        samples.decimate(sweepStart, sweepStart + SWEEP_TIME, min, max);
+
+        // One change event for the whole sweep, rather than one per point.
+        voltages.setNotify(false);
+        voltages.clear();
+        for (int column = 0; column < COLUMNS; column++) {
+            if (Double.isNaN(min[column])) continue;
+            double time = (double) column * SWEEP_TIME / COLUMNS / 1000.0;
+            voltages.add(time, min[column], false);
+            if (max[column] != min[column]) voltages.add(time, max[column], false);
         }
-        
-        voltages.add(currentTime, voltage);
+        voltages.setNotify(true);
     }
 }
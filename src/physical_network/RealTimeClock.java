@@ -0,0 +1,48 @@
+package physical_network;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock that simply follows the wall clock, i.e. a 100 ms pulse really takes 100 ms.
+ */
+public class RealTimeClock implements Clock {
+
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    public <E> E take(BlockingQueue<E> queue) throws InterruptedException {
+        return queue.take();
+    }
+
+    public <E> E poll(BlockingQueue<E> queue, long timeoutMillis) throws InterruptedException {
+        return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public <E> void put(BlockingQueue<E> queue, E element) throws InterruptedException {
+        queue.put(element);
+    }
+
+    public <E> boolean offer(BlockingQueue<E> queue, E element) {
+        return queue.offer(element);
+    }
+
+    public void register(Thread thread) {
+        // Nothing to keep track of in real time.
+    }
+
+    public void unregister(Thread thread) {
+        // Nothing to keep track of in real time.
+    }
+
+    public void interrupt(Thread thread) {
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,151 @@
+package physical_network;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Puts messages that were sent in fragments back together.
+ * <p>
+ * Fragments of a message may arrive in any order and more than once. A message is dropped
+ * when none of its fragments has arrived for longer than the timeout, and the oldest
+ * messages of a source are dropped when its fragments would take up more memory than
+ * allowed. Only used by the receiver thread of a single card.
+ */
+class ReassemblyBuffer {
+
+    private final long timeout;
+    private final int maxBytesPerSource;
+
+    // Messages being put together for each source, each in the order they were started.
+    private final HashMap<Integer, Source> sources = new HashMap<Integer, Source>();
+
+    private volatile long droppedMessages = 0;
+
+    /**
+     * @param timeout           Longest time to wait for the next fragment of a message, in milliseconds.
+     * @param maxBytesPerSource Most bytes of unfinished messages held for one source.
+     */
+    public ReassemblyBuffer(long timeout, int maxBytesPerSource) {
+        this.timeout = timeout;
+        this.maxBytesPerSource = maxBytesPerSource;
+    }
+
+    /**
+     * Takes in a fragment received at the given time.
+     *
+     * @return The whole message as a single frame once its last missing fragment has
+     * arrived, null otherwise.
+     */
+    public DataFrame add(DataFrame fragment, long now) {
+        this.dropExpired(now);
+
+        DataFrame.Header header = fragment.getHeader();
+        byte[] bytes = fragment.getData().getBytes();
+        int offset = header.getFragmentOffset();
+        if (offset < 0 || offset > Integer.MAX_VALUE - bytes.length) return null;
+
+        Source source = sources.get(header.getSource());
+        if (source == null) {
+            source = new Source();
+            sources.put(header.getSource(), source);
+        }
+
+        Message message = source.messages.get(header.getMessageId());
+        if (message == null) {
+            message = new Message();
+            source.messages.put(header.getMessageId(), message);
+        }
+        message.lastFragmentTime = now;
+
+        // A fragment that was resent because its ACK got lost.
+        if (message.fragments.containsKey(offset)) return null;
+
+        if (!header.hasMoreFragments()) message.length = offset + bytes.length;
+        if (message.length >= 0 && offset + bytes.length > message.length) {
+            // Parts of different messages with the same id, this one can not be trusted.
+            this.drop(source, header.getMessageId());
+            return null;
+        }
+
+        // Make room by dropping older messages, unless this one is too big on its own.
+        if (message.received + bytes.length > maxBytesPerSource) {
+            this.drop(source, header.getMessageId());
+            return null;
+        }
+        Iterator<Integer> oldest = source.messages.keySet().iterator();
+        while (source.bytes + bytes.length > maxBytesPerSource) {
+            int id = oldest.next();
+            if (id == header.getMessageId()) continue;
+            Message dropped = source.messages.get(id);
+            source.bytes -= dropped.received;
+            droppedMessages++;
+            oldest.remove();
+        }
+
+        message.fragments.put(offset, bytes);
+        message.received += bytes.length;
+        source.bytes += bytes.length;
+        if (message.received != message.length) return null;
+
+        source.messages.remove(header.getMessageId());
+        source.bytes -= message.received;
+
+        byte[] whole = new byte[message.length];
+        for (Map.Entry<Integer, byte[]> part : message.fragments.entrySet()) {
+            System.arraycopy(part.getValue(), 0, whole, part.getKey(), part.getValue().length);
+        }
+        DataFrame frame = new DataFrame(whole, header.getDestination());
+        frame.getHeader().setSource(header.getSource());
+        return frame;
+    }
+
+    /**
+     * @return Number of messages given up on so far.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /*
+     * Drops all messages which have not had a fragment for longer than the timeout.
+     */
+    private void dropExpired(long now) {
+        for (Source source : sources.values()) {
+            Iterator<Message> messages = source.messages.values().iterator();
+            while (messages.hasNext()) {
+                Message message = messages.next();
+                if (now - message.lastFragmentTime > timeout) {
+                    source.bytes -= message.received;
+                    droppedMessages++;
+                    messages.remove();
+                }
+            }
+        }
+    }
+
+    private void drop(Source source, int messageId) {
+        Message message = source.messages.remove(messageId);
+        if (message == null) return;
+        source.bytes -= message.received;
+        droppedMessages++;
+    }
+
+    private static class Source {
+        private final LinkedHashMap<Integer, Message> messages = new LinkedHashMap<Integer, Message>();
+        private int bytes = 0;
+    }
+
+    private static class Message {
+        // Received fragments by offset.
+        private final TreeMap<Integer, byte[]> fragments = new TreeMap<Integer, byte[]>();
+        private int received = 0;
+
+        // Total length, known once the last fragment has arrived.
+        private int length = -1;
+
+        private long lastFragmentTime;
+    }
+}
@@ -0,0 +1,135 @@
+package physical_network;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the ReassemblyBuffer puts messages back together from fragments in any
+ * order, and gives up on them when it should.
+ * <p>
+ * Fragments are handed to the buffer the way the receiver of a card does, at times taken
+ * from the simulated clock, which is moved on between them:
+ * <ul>
+ * <li>fragments arriving out of order and twice make up the message once, when the last gap is filled;</li>
+ * <li>a message whose fragments keep arriving within the timeout is completed, however long it takes
+ * overall, but one that has to wait longer than the timeout for a fragment is dropped;</li>
+ * <li>a source sending more than the buffer may hold for it loses its oldest unfinished message,
+ * without taking room from other sources, and a message too big on its own is dropped.</li>
+ * </ul>
+ * Exits with status 1 if any case went differently.
+ * <p>
+ * Usage: ReassemblyCheck
+ */
+public class ReassemblyCheck {
+
+    private static final long TIMEOUT = 10000;
+
+    private static final String MESSAGE = "The quick brown fox jumps over the lazy dog";
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean failed = false;
+        failed |= !outOfOrder();
+        failed |= !timeout();
+        failed |= !eviction();
+
+        if (failed) {
+            System.out.println("Messages were not put back together as expected.");
+            System.exit(1);
+        }
+    }
+
+    private static boolean outOfOrder() {
+        SimulatedClock clock = new SimulatedClock();
+        ReassemblyBuffer buffer = new ReassemblyBuffer(TIMEOUT, 1024);
+
+        boolean passed = true;
+        int[] offsets = {20, 0, 40, 30, 0, 10, 30};
+        DataFrame whole = null;
+        for (int i = 0; i < offsets.length; i++) {
+            whole = buffer.add(fragment(3, 1, MESSAGE, offsets[i], 10), clock.currentTimeMillis());
+            // Only the fragment filling the last gap completes the message.
+            if (i == offsets.length - 2) passed &= whole != null && whole.toString().equals(MESSAGE)
+                    && whole.getHeader().getSource() == 3;
+            else passed &= whole == null;
+        }
+        passed &= buffer.getDroppedMessages() == 0;
+
+        report("out of order", passed, buffer);
+        return passed;
+    }
+
+    private static boolean timeout() throws InterruptedException {
+        SimulatedClock clock = new SimulatedClock();
+        ReassemblyBuffer buffer = new ReassemblyBuffer(TIMEOUT, 1024);
+
+        // Fragments every half timeout keep the message alive for longer than the timeout.
+        boolean passed = true;
+        for (int offset = 0; offset < MESSAGE.length(); offset += 10) {
+            DataFrame whole = buffer.add(fragment(3, 1, MESSAGE, offset, 10), clock.currentTimeMillis());
+            passed &= (offset + 10 >= MESSAGE.length()) == (whole != null);
+            clock.sleep(TIMEOUT / 2);
+        }
+
+        // A gap longer than the timeout loses the fragments that came before it.
+        passed &= buffer.add(fragment(3, 2, MESSAGE, 0, 10), clock.currentTimeMillis()) == null;
+        passed &= buffer.add(fragment(3, 2, MESSAGE, 20, 30), clock.currentTimeMillis()) == null;
+        clock.sleep(TIMEOUT + 1);
+        passed &= buffer.add(fragment(3, 2, MESSAGE, 10, 10), clock.currentTimeMillis()) == null;
+        passed &= buffer.getDroppedMessages() == 1;
+
+        // Sending the message again after the timeout still works.
+        passed &= buffer.add(fragment(3, 2, MESSAGE, 0, 10), clock.currentTimeMillis()) == null;
+        DataFrame whole = buffer.add(fragment(3, 2, MESSAGE, 20, 30), clock.currentTimeMillis());
+        passed &= whole != null && whole.toString().equals(MESSAGE);
+
+        report("timeout", passed, buffer);
+        return passed;
+    }
+
+    private static boolean eviction() {
+        SimulatedClock clock = new SimulatedClock();
+        ReassemblyBuffer buffer = new ReassemblyBuffer(TIMEOUT, 20);
+        String message = "0123456789AB";
+
+        // The third unfinished message of a source pushes out the first.
+        boolean passed = true;
+        for (int id = 1; id <= 3; id++) {
+            passed &= buffer.add(fragment(3, id, message, 0, 8), clock.currentTimeMillis()) == null;
+        }
+        passed &= buffer.getDroppedMessages() == 1;
+
+        // The others can still be finished, but the first one has lost its start.
+        DataFrame whole = buffer.add(fragment(3, 2, message, 8, 4), clock.currentTimeMillis());
+        passed &= whole != null && whole.toString().equals(message);
+        passed &= buffer.add(fragment(3, 1, message, 8, 4), clock.currentTimeMillis()) == null;
+
+        // Another source has room of its own.
+        passed &= buffer.add(fragment(4, 1, message, 0, 8), clock.currentTimeMillis()) == null;
+        whole = buffer.add(fragment(4, 1, message, 8, 4), clock.currentTimeMillis());
+        passed &= whole != null && whole.toString().equals(message) && whole.getHeader().getSource() == 4;
+        passed &= buffer.getDroppedMessages() == 1;
+
+        // A message that does not fit at all is dropped rather than pushing out the others.
+        String big = "0123456789ABCDEFGHIJKLMN";
+        passed &= buffer.add(fragment(3, 5, big, 0, big.length()), clock.currentTimeMillis()) == null;
+        passed &= buffer.getDroppedMessages() == 2;
+        whole = buffer.add(fragment(3, 3, message, 8, 4), clock.currentTimeMillis());
+        passed &= whole != null && whole.toString().equals(message);
+
+        report("eviction", passed, buffer);
+        return passed;
+    }
+
+    private static DataFrame fragment(int source, int messageId, String message, int offset, int length) {
+        byte[] bytes = message.getBytes();
+        int end = Math.min(offset + length, bytes.length);
+        DataFrame frame = new DataFrame(Arrays.copyOfRange(bytes, offset, end), 1);
+        frame.getHeader().setSource(source);
+        frame.getHeader().setFragment(messageId, offset, end < bytes.length);
+        return frame;
+    }
+
+    private static void report(String name, boolean passed, ReassemblyBuffer buffer) {
+        System.out.printf("%-13s %s, %d messages dropped%n", name, passed ? "passed" : "FAILED",
+                buffer.getDroppedMessages());
+    }
+}
@@ -0,0 +1,184 @@
+package physical_network;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that receiving a frame allocates nothing once the frame pool has warmed up.
+ * <p>
+ * One card sends frames to another on the simulated clock, and the memory allocated by
+ * the receiving card's receiver thread is counted while it takes them off the wire, error
+ * corrects, decodes and verifies them, acknowledges them and queues them. The consumer
+ * takes every frame off the queue and releases it. Waiting on the simulated clock takes
+ * locks and timers of the clock's own, so only what the thread allocates outside of the
+ * clock is counted. Events are turned off, the console sink would format a line for every
+ * byte received. Exits with status 1 if receiving allocated memory.
+ * <p>
+ * Usage: ReceiveAllocationCheck [frames]
+ */
+public class ReceiveAllocationCheck {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int PAYLOAD_SIZE = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        new Random(42).nextBytes(payload);
+
+        boolean failed = false;
+        System.out.println("arq               correction  check        bytes/frame");
+        for (NetworkCard.ArqMode arqMode : NetworkCard.ArqMode.values()) {
+            for (ErrorCorrection correction : new ErrorCorrection[]{ErrorCorrection.NONE, ErrorCorrection.HAMMING}) {
+                for (FrameCheck check : FrameCheck.values()) {
+                    long allocated = run(arqMode, correction, check, payload, frames);
+                    if (allocated < 0) {
+                        System.out.println("Frames were not received intact.");
+                        System.exit(1);
+                    }
+                    System.out.printf("%-17s %-11s %-11s %11.2f%n", arqMode, correction, check,
+                            (double) allocated / frames);
+
+                    // Anything allocated just once, say while the JIT swaps in compiled code, comes
+                    // to well below a byte per frame. The smallest object per frame would not.
+                    if (allocated >= frames) failed = true;
+                }
+            }
+        }
+
+        if (failed) {
+            System.out.println("Receiving allocated memory.");
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Returns the bytes the receiver allocated for the frames, or -1 if they did not arrive intact.
+     */
+    private static long run(NetworkCard.ArqMode arqMode, ErrorCorrection correction, FrameCheck check,
+                            byte[] payload, int frames) throws InterruptedException {
+        CountingClock clock = new CountingClock();
+        TwistedWirePair wire = new MyTwistedWirePair(clock);
+        NetworkCard sender = createCard(1, wire, arqMode, correction, check);
+        NetworkCard receiver = createCard(2, wire, arqMode, correction, check);
+        Thread rxThread = findThread("NetCard2 RX");
+
+        // Warm up so that the pools are filled and the JIT has compiled the receiver.
+        boolean intact = transfer(sender, receiver, payload, frames / 2);
+        long allocated = clock.getAllocatedOutside(rxThread);
+        intact &= transfer(sender, receiver, payload, frames);
+        allocated = clock.getAllocatedOutside(rxThread) - allocated;
+
+        sender.shutdown();
+        receiver.shutdown();
+        return intact ? allocated : -1;
+    }
+
+    private static boolean transfer(NetworkCard sender, NetworkCard receiver, byte[] payload, int frames)
+            throws InterruptedException {
+        boolean intact = true;
+        for (int i = 0; i < frames; i++) {
+            sender.send(new DataFrame(payload, 2));
+            DataFrame frame = receiver.receive();
+            intact &= frame.getData().getPayload().equals(ByteBuffer.wrap(payload));
+            frame.release();
+        }
+        return intact;
+    }
+
+    private static NetworkCard createCard(int number, TwistedWirePair wire, NetworkCard.ArqMode arqMode,
+                                          ErrorCorrection correction, FrameCheck check) {
+        NetworkCard card = new NetworkCard(number, wire, arqMode, 4);
+        card.setErrorCorrection(correction);
+        card.setFrameCheck(check);
+        return Simulation.init(card);
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) return thread;
+        }
+        throw new IllegalStateException("No thread called " + name);
+    }
+
+    /**
+     * Simulated clock keeping count of what every thread using it allocates in between calls.
+     * Every count is brought up to date by the thread itself whenever it calls the clock, so it
+     * is exact as of the thread's last call.
+     */
+    private static class CountingClock extends SimulatedClock {
+
+        private final ConcurrentHashMap<Thread, Count> counts = new ConcurrentHashMap<Thread, Count>();
+
+        public long getAllocatedOutside(Thread thread) {
+            Count count = counts.get(thread);
+            return count == null ? 0 : count.outside;
+        }
+
+        public void sleep(long millis) throws InterruptedException {
+            Count count = enter();
+            try {
+                super.sleep(millis);
+            } finally {
+                exit(count);
+            }
+        }
+
+        // take() waits through poll().
+        public <E> E poll(BlockingQueue<E> queue, long timeoutMillis) throws InterruptedException {
+            Count count = enter();
+            try {
+                return super.poll(queue, timeoutMillis);
+            } finally {
+                exit(count);
+            }
+        }
+
+        public <E> void put(BlockingQueue<E> queue, E element) throws InterruptedException {
+            Count count = enter();
+            try {
+                super.put(queue, element);
+            } finally {
+                exit(count);
+            }
+        }
+
+        public <E> boolean offer(BlockingQueue<E> queue, E element) {
+            Count count = enter();
+            try {
+                return super.offer(queue, element);
+            } finally {
+                exit(count);
+            }
+        }
+
+        private Count enter() {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            Count count = counts.get(Thread.currentThread());
+            if (count == null) {
+                // Nothing is counted before the first call.
+                count = new Count();
+                counts.put(Thread.currentThread(), count);
+            } else {
+                count.outside += allocated - count.lastExit;
+            }
+            return count;
+        }
+
+        private void exit(Count count) {
+            count.lastExit = THREADS.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    private static class Count {
+        // Only written by the thread counted.
+        private volatile long outside;
+        private long lastExit;
+    }
+}
@@ -0,0 +1,301 @@
+package physical_network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes everything through to another wire and writes every voltage set on it to a
+ * trace, which ReplayWirePair can play back to receivers later on.
+ * <p>
+ * A trace starts with MAGIC and VERSION as big-endian ints. Every record then starts with
+ * a tag, which is the connection number times two, plus one for a connection record.
+ * A connection record follows its tag with the length and ASCII bytes of the device name.
+ * A voltage record follows it with the time since the previous record in milliseconds and
+ * the voltage in nanovolts, both zigzag encoded so that small negative values stay small.
+ * Numbers are written as unsigned varints, seven bits to a byte, lowest bits first, so a
+ * voltage change usually takes about seven bytes.
+ * <p>
+ * Times are counted from when the recording wire was made, and taken by the device as
+ * soon as its voltage is on the wire. Devices setting voltages take no locks: each one
+ * claims the next slot of a ring buffer for its record, and a thread of the recording
+ * wire encodes the records in the order their slots were claimed. The voltages of one
+ * device are therefore always recorded in the order they were set. Devices setting
+ * voltages at the same moment may be recorded the other way around from how they reached
+ * the wire, which is why a record can go back in time by as much as that moment took.
+ * Should the buffer ever be full, devices wait for the writer to make room. The writer
+ * encodes records into chunks of its own, so the stream need not be buffered.
+ */
+public class RecordingWirePair implements TwistedWirePair {
+
+    public static final int MAGIC = 0x4E435754; // "NCWT"
+    public static final int VERSION = 2;
+
+    /**
+     * Number of records that can wait to be written before devices have to wait for the writer.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    static final double NANOVOLTS_PER_VOLT = 1e9;
+
+    // How long the writer waits before looking for records again when there are none.
+    private static final long IDLE_NANOS = 1000000;
+
+    // Bytes the writer encodes records into before passing them on to the stream.
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int MAX_VARINT_LENGTH = 10;
+
+    private final TwistedWirePair wire;
+    private final Clock clock;
+    private final OutputStream out;
+
+    private final long startTime;
+
+    // Devices whose names have been put into the trace.
+    private final ConcurrentHashMap<String, Integer> named = new ConcurrentHashMap<String, Integer>();
+
+    // Records claimed so far. The record numbered n goes into slot n % BUFFER_SIZE.
+    private final AtomicLong claimed = new AtomicLong();
+
+    // Number of the record in each slot plus one, set once the record has been filled in.
+    private final AtomicLongArray filled = new AtomicLongArray(BUFFER_SIZE);
+    private final int[] connections = new int[BUFFER_SIZE];
+    private final long[] times = new long[BUFFER_SIZE];
+    private final long[] nanovolts = new long[BUFFER_SIZE];
+    // Device name for a connection record, null for a voltage record.
+    private final String[] names = new String[BUFFER_SIZE];
+
+    // Records taken out of the buffer so far.
+    private volatile long written;
+
+    private volatile boolean closed;
+
+    // First error writing the trace, after which records are still taken out of the buffer but dropped.
+    private volatile IOException error;
+
+    // Records encoded but not yet passed on to the stream. Only used by the writer.
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+
+    private final Thread writer;
+
+    /**
+     * @param wire Wire that devices are really connected to.
+     * @param out  Where the trace goes, closed by close().
+     */
+    public RecordingWirePair(TwistedWirePair wire, OutputStream out) throws IOException {
+        this.wire = wire;
+        this.clock = wire.getClock();
+        this.out = out;
+        this.startTime = clock.currentTimeMillis();
+
+        for (int shift = 24; shift >= 0; shift -= 8) chunk[chunkLength++] = (byte) (MAGIC >>> shift);
+        for (int shift = 24; shift >= 0; shift -= 8) chunk[chunkLength++] = (byte) (VERSION >>> shift);
+
+        // Not one of the devices, so it does not register with the clock: it never waits on it.
+        this.writer = new Thread("Trace Writer") {
+            public void run() {
+                writeRecords();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public int connect(String device) {
+        int connection = wire.connect(device);
+        if (named.putIfAbsent(device, connection) == null) add(connection, 0, 0, device);
+        return connection;
+    }
+
+    public void setVoltage(String device, double voltage) {
+        setVoltage(connect(device), voltage);
+    }
+
+    public void setVoltage(int connection, double voltage) {
+        wire.setVoltage(connection, voltage);
+        add(connection, clock.currentTimeMillis() - startTime, Math.round(voltage * NANOVOLTS_PER_VOLT), null);
+    }
+
+    public double getVoltage(String device) {
+        return wire.getVoltage(device);
+    }
+
+    public double getVoltage(int connection) {
+        return wire.getVoltage(connection);
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Writes out the records of every voltage set so far.
+     *
+     * @throws IOException The first error writing the trace, if there was one.
+     */
+    public void flush() throws IOException {
+        awaitWritten(claimed.get());
+        synchronized (out) {
+            if (error == null) {
+                try {
+                    out.flush();
+                } catch (IOException except) {
+                    error = except;
+                }
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Writes out the records buffered so far and closes the stream. Voltages set after
+     * this are still passed on to the wire, but no longer recorded.
+     *
+     * @throws IOException The first error writing the trace, if there was one.
+     */
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            closed = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException except) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (out) {
+                if (error == null) error = new IOException("Trace has been closed.");
+                out.close();
+            }
+        }
+    }
+
+    /*
+     * Puts a record into the next slot of the buffer, waiting for the slot to be written out if need be.
+     */
+    private void add(int connection, long time, long voltage, String name) {
+        if (closed) return;
+
+        long record = claimed.getAndIncrement();
+        while (record - written >= BUFFER_SIZE) {
+            if (!writer.isAlive()) return;
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+
+        int slot = (int) (record % BUFFER_SIZE);
+        connections[slot] = connection;
+        times[slot] = time;
+        nanovolts[slot] = voltage;
+        names[slot] = name;
+        filled.lazySet(slot, record + 1);
+    }
+
+    /*
+     * Runs on the writer thread until the trace is closed.
+     */
+    private void writeRecords() {
+        // Which connections of the wire have been named in the trace so far.
+        boolean[] recorded = new boolean[16];
+        long lastTime = 0;
+        long next = 0;
+
+        while (true) {
+            long end = next;
+            while (filled.get((int) (end % BUFFER_SIZE)) == end + 1) {
+                int slot = (int) (end % BUFFER_SIZE);
+                int connection = connections[slot];
+                if (connection >= recorded.length) {
+                    recorded = Arrays.copyOf(recorded, Math.max(connection + 1, 2 * recorded.length));
+                }
+
+                if (names[slot] != null) {
+                    if (!recorded[connection]) writeName(connection, names[slot]);
+                } else {
+                    // Devices may set voltages without connecting by name first.
+                    if (!recorded[connection]) writeName(connection, "Connection " + connection);
+                    if (chunkLength > CHUNK_SIZE - 3 * MAX_VARINT_LENGTH) writeChunk();
+                    putVarint(2L * connection);
+                    putVarint(zigzag(times[slot] - lastTime));
+                    putVarint(zigzag(nanovolts[slot]));
+                    lastTime = times[slot];
+                }
+                recorded[connection] = true;
+                names[slot] = null;
+                end++;
+            }
+
+            if (end > next) {
+                writeChunk();
+                next = end;
+                this.written = next;
+            } else if (closed && next == claimed.get()) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /*
+     * Waits until the writer has taken the given number of records out of the buffer.
+     */
+    private void awaitWritten(long records) {
+        while (written < records && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    private void writeName(int connection, String device) {
+        byte[] name = device.getBytes(StandardCharsets.US_ASCII);
+        if (chunkLength > CHUNK_SIZE - 2 * MAX_VARINT_LENGTH - name.length) writeChunk();
+        putVarint(2L * connection + 1);
+        putVarint(name.length);
+        if (name.length > CHUNK_SIZE - chunkLength) {
+            writeChunk();
+            write(name, name.length);
+        } else {
+            System.arraycopy(name, 0, chunk, chunkLength, name.length);
+            chunkLength += name.length;
+        }
+    }
+
+    /*
+     * Passes the records encoded so far on to the stream.
+     */
+    private void writeChunk() {
+        write(chunk, chunkLength);
+        chunkLength = 0;
+    }
+
+    private void write(byte[] bytes, int length) {
+        synchronized (out) {
+            if (error != null) return;
+            try {
+                out.write(bytes, 0, length);
+            } catch (IOException except) {
+                error = except;
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            chunk[chunkLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        chunk[chunkLength++] = (byte) value;
+    }
+}
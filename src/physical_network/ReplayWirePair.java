@@ -0,0 +1,214 @@
+package physical_network;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a trace written by RecordingWirePair back to the devices connected to it, so that
+ * a receiver sees the same voltages at the same times as on the recorded wire and a
+ * failure can be gone through again, or a decoder run against a capture.
+ * <p>
+ * Times in the trace are counted from when this wire was made, and every voltage change
+ * shows once the wire is read at or after its time. Voltages set by devices connected to
+ * this wire are ignored: the trace already holds all there was on the wire, including
+ * what the receiver sent itself when it was recorded.
+ * <p>
+ * The trace is read as it is played, so captures of any size can be replayed. Once it
+ * ends, the wire keeps the last voltages recorded.
+ */
+public class ReplayWirePair implements TwistedWirePair {
+
+    private final Clock clock;
+    private final InputStream in;
+    private final long startTime;
+    private final boolean signedTimes;
+
+    private final ConcurrentHashMap<String, Integer> connections = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    // Names and voltages, in nanovolts, of the connections in the trace.
+    private String[] names = new String[16];
+    private long[] voltages = new long[16];
+    private long total;
+
+    // Sum of the voltages applied so far, read without taking the lock.
+    private volatile double voltage;
+
+    // The next voltage change in the trace, Long.MAX_VALUE as its time once the trace has ended.
+    private volatile long nextTime;
+    private int nextConnection;
+    private long nextNanovolts;
+
+    private long records;
+    private IOException error;
+
+    /**
+     * @param clock Clock that the devices connected to this wire run against.
+     * @param in    Trace to play back, closed once it has been read to the end.
+     * @throws IOException If the stream is not a wire trace.
+     */
+    public ReplayWirePair(Clock clock, InputStream in) throws IOException {
+        this.clock = clock;
+        this.in = new BufferedInputStream(in, 1 << 16);
+
+        int magic = readInt();
+        int version = readInt();
+        if (magic != RecordingWirePair.MAGIC) throw new IOException("Not a wire trace.");
+        if (version < 1 || version > RecordingWirePair.VERSION) {
+            throw new IOException("Unknown wire trace version " + version + ".");
+        }
+        // Before version 2, times only ever went forward.
+        this.signedTimes = version >= 2;
+
+        this.startTime = clock.currentTimeMillis();
+        synchronized (this) {
+            readNext(0);
+        }
+    }
+
+    public int connect(String device) {
+        Integer connection = connections.get(device);
+        if (connection != null) return connection;
+
+        return connections.computeIfAbsent(device, name -> connectionCount.getAndIncrement());
+    }
+
+    public void setVoltage(String device, double voltage) {
+        // Only what was recorded goes on the wire.
+    }
+
+    public void setVoltage(int connection, double voltage) {
+        // Only what was recorded goes on the wire.
+    }
+
+    public double getVoltage(String device) {
+        return getVoltage(0);
+    }
+
+    public double getVoltage(int connection) {
+        long now = clock.currentTimeMillis() - startTime;
+        if (now >= nextTime) play(now);
+        return voltage;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return Whether every voltage change in the trace has been played.
+     */
+    public boolean isFinished() {
+        return nextTime == Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Number of voltage changes played so far.
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return Names of the devices recorded in the trace so far, by their connection in it.
+     */
+    public synchronized String[] getRecordedDevices() {
+        int count = names.length;
+        while (count > 0 && names[count - 1] == null) count--;
+        return Arrays.copyOf(names, count);
+    }
+
+    /**
+     * @return The error that cut the trace short, null if there was none.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /*
+     * Applies every voltage change up to the given time.
+     */
+    private synchronized void play(long now) {
+        while (nextTime <= now) {
+            total += nextNanovolts - voltages[nextConnection];
+            voltages[nextConnection] = nextNanovolts;
+            records++;
+            readNext(nextTime);
+        }
+        voltage = total / RecordingWirePair.NANOVOLTS_PER_VOLT;
+    }
+
+    /*
+     * Reads up to the next voltage change, taking in connection records on the way.
+     * Must be called with the lock held.
+     */
+    private void readNext(long time) {
+        try {
+            while (true) {
+                long tag = readVarint();
+                int connection = (int) (tag >>> 1);
+                if (connection >= voltages.length) {
+                    int length = Math.max(connection + 1, 2 * voltages.length);
+                    voltages = Arrays.copyOf(voltages, length);
+                    names = Arrays.copyOf(names, length);
+                }
+
+                if ((tag & 1) != 0) {
+                    byte[] name = new byte[(int) readVarint()];
+                    for (int i = 0; i < name.length; i++) name[i] = (byte) read();
+                    names[connection] = new String(name, StandardCharsets.US_ASCII);
+                    continue;
+                }
+
+                long delta = readVarint();
+                if (signedTimes) delta = unzigzag(delta);
+                nextConnection = connection;
+                nextNanovolts = unzigzag(readVarint());
+                nextTime = time + delta;
+                return;
+            }
+        } catch (EOFException except) {
+            // A trace cut off in the middle of a record ends there.
+        } catch (IOException except) {
+            error = except;
+        }
+        nextTime = Long.MAX_VALUE;
+        try {
+            in.close();
+        } catch (IOException except) {
+            // Nothing more is read from it.
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int read() throws IOException {
+        int value = in.read();
+        if (value < 0) throw new EOFException();
+        return value;
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) value = (value << 8) | read();
+        return value;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = read();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed number in wire trace.");
+    }
+}
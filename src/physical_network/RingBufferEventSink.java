@@ -0,0 +1,144 @@
+package physical_network;
+
+/**
+ * Collects events in a ring buffer and passes them on to another sink from a thread of its
+ * own, so that the cards never wait for formatting or I/O. Reporting an event does not
+ * allocate. When events come in faster than the other sink takes them, new events are
+ * dropped and counted rather than holding up the cards.
+ * <p>
+ * The thread passing events on runs on real time, it never touches a simulated clock.
+ */
+public class RingBufferEventSink implements EventSink {
+
+    private final EventSink target;
+    private final int capacity;
+
+    // Events waiting to be passed on, count of them starting at head.
+    private final long[] times;
+    private final int[] devices;
+    private final CardEvent[] events;
+    private final int[] peers;
+    private final int[] values;
+    private int head = 0;
+    private int count = 0;
+
+    private long accepted = 0;
+    private long passedOn = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    private final Thread drainer;
+
+    /**
+     * @param target   Sink to pass the events on to, only ever called from one thread.
+     * @param capacity Most events held before new ones are dropped.
+     */
+    public RingBufferEventSink(EventSink target, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
+
+        this.target = target;
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.devices = new int[capacity];
+        this.events = new CardEvent[capacity];
+        this.peers = new int[capacity];
+        this.values = new int[capacity];
+
+        this.drainer = new Thread("Event sink") {
+            public void run() {
+                drain();
+            }
+        };
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    public synchronized void event(long time, int device, CardEvent event, int peer, int value) {
+        if (count == capacity || closed) {
+            dropped++;
+            return;
+        }
+
+        int slot = (head + count) % capacity;
+        times[slot] = time;
+        devices[slot] = device;
+        events[slot] = event;
+        peers[slot] = peer;
+        values[slot] = value;
+        count++;
+        accepted++;
+        if (count == 1) notifyAll();
+    }
+
+    /**
+     * Waits until every event reported so far has been passed on.
+     */
+    public synchronized void flush() throws InterruptedException {
+        long goal = accepted;
+        while (passedOn < goal) wait();
+    }
+
+    /**
+     * Passes on the events still waiting and stops the thread doing so. Events reported
+     * afterwards are dropped. Does not close the target sink.
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        drainer.join();
+    }
+
+    /**
+     * @return Number of events dropped because the buffer was full or closed.
+     */
+    public synchronized long getDroppedEvents() {
+        return dropped;
+    }
+
+    private void drain() {
+        // Events are copied out so that the target is called without holding the lock.
+        long[] batchTimes = new long[capacity];
+        int[] batchDevices = new int[capacity];
+        CardEvent[] batchEvents = new CardEvent[capacity];
+        int[] batchPeers = new int[capacity];
+        int[] batchValues = new int[capacity];
+
+        while (true) {
+            int batch;
+            synchronized (this) {
+                while (count == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException except) {
+                        return;
+                    }
+                }
+                if (count == 0) return;
+
+                batch = count;
+                for (int i = 0; i < batch; i++) {
+                    int slot = (head + i) % capacity;
+                    batchTimes[i] = times[slot];
+                    batchDevices[i] = devices[slot];
+                    batchEvents[i] = events[slot];
+                    batchPeers[i] = peers[slot];
+                    batchValues[i] = values[slot];
+                    events[slot] = null;
+                }
+                head = (head + batch) % capacity;
+                count = 0;
+            }
+
+            for (int i = 0; i < batch; i++) {
+                target.event(batchTimes[i], batchDevices[i], batchEvents[i], batchPeers[i], batchValues[i]);
+            }
+
+            synchronized (this) {
+                passedOn += batch;
+                notifyAll();
+            }
+        }
+    }
+}
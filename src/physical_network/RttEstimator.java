@@ -0,0 +1,82 @@
+package physical_network;
+
+/**
+ * Estimates the retransmission timeout towards a single destination from
+ * measured round-trip times, following the usual smoothed RTT and RTT variance
+ * approach (as in RFC 6298) with exponential backoff after timeouts.
+ * <p>
+ * Samples must only be taken from frames which were sent exactly once (Karn's rule),
+ * since it is impossible to tell which copy of a retransmitted frame an ACK is for.
+ */
+class RttEstimator {
+
+    // Weights of new samples in the smoothed RTT and RTT variance.
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private final long minTimeout;
+    private final long maxTimeout;
+
+    // Lower bound for the variance term, covers the granularity of the measurements.
+    private final long granularity;
+
+    private double smoothedRtt = -1;
+    private double rttVariance = 0;
+
+    private long timeout;
+
+    /**
+     * @param initialTimeout Timeout used until the first round-trip time has been measured.
+     * @param minTimeout     Timeout never goes below this.
+     * @param maxTimeout     Timeout never goes above this, even after backing off.
+     * @param granularity    Smallest variance allowance added to the smoothed RTT.
+     */
+    public RttEstimator(long initialTimeout, long minTimeout, long maxTimeout, long granularity) {
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.granularity = granularity;
+        this.timeout = clamp(initialTimeout);
+    }
+
+    /**
+     * Adds a new round-trip time measurement and recalculates the timeout,
+     * which also undoes any backoff.
+     *
+     * @param rtt Round-trip time in milliseconds.
+     */
+    public void addSample(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+        } else {
+            rttVariance = (1 - BETA) * rttVariance + BETA * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+        }
+        timeout = clamp((long) Math.ceil(smoothedRtt + Math.max(granularity, 4 * rttVariance)));
+    }
+
+    /**
+     * Doubles the timeout after it has run out without an ACK.
+     */
+    public void backOff() {
+        timeout = clamp(timeout * 2);
+    }
+
+    /**
+     * @return Current retransmission timeout in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return Smoothed round-trip time in milliseconds, or -1 if nothing has been measured yet.
+     */
+    public double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minTimeout, Math.min(maxTimeout, value));
+    }
+}
@@ -0,0 +1,100 @@
+package physical_network;
+
+/**
+ * The latest voltage samples taken by an oscilloscope. Samples are kept in primitive arrays
+ * that are written over once full, so a long run takes no more memory than a short one.
+ * <p>
+ * One thread records samples while others read them, so every method is synchronized.
+ */
+class SampleRing {
+
+    private final long[] times;
+    private final double[] voltages;
+
+    // Where the next sample goes and how many samples are kept.
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity Most samples kept, older ones are written over.
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        this.times = new long[capacity];
+        this.voltages = new double[capacity];
+    }
+
+    /**
+     * Adds a sample, which must not be older than the one recorded before it.
+     */
+    public synchronized void record(long time, double voltage) {
+        times[next] = time;
+        voltages[next] = voltage;
+        next = (next + 1) % times.length;
+        if (size < times.length) size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Time of the sample at the index, the oldest kept sample being 0.
+     */
+    public synchronized long getTime(int index) {
+        return times[position(index)];
+    }
+
+    /**
+     * @return Voltage of the sample at the index, the oldest kept sample being 0.
+     */
+    public synchronized double getVoltage(int index) {
+        return voltages[position(index)];
+    }
+
+    /**
+     * @return Time of the latest sample, Long.MIN_VALUE if there is none.
+     */
+    public synchronized long getLatestTime() {
+        return size == 0 ? Long.MIN_VALUE : times[(next - 1 + times.length) % times.length];
+    }
+
+    /**
+     * Reduces the samples taken from 'from' up to but not including 'to' to the lowest and
+     * highest voltage in each of a number of columns of equal duration, which is all that a
+     * column of pixels can show. Columns without samples are set to NaN.
+     *
+     * @param min Lowest voltage per column, its length is the number of columns.
+     * @param max Highest voltage per column, as long as min.
+     * @return Number of samples in the range.
+     */
+    public synchronized int decimate(long from, long to, double[] min, double[] max) {
+        int columns = min.length;
+        for (int column = 0; column < columns; column++) {
+            min[column] = Double.NaN;
+            max[column] = Double.NaN;
+        }
+
+        // Samples are in time order, so go back from the latest one until before the range.
+        int count = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            int position = position(i);
+            long time = times[position];
+            if (time < from) break;
+            if (time >= to) continue;
+
+            int column = (int) ((time - from) * columns / (to - from));
+            double voltage = voltages[position];
+            // Comparisons with NaN are false, so the first sample of a column always counts.
+            if (!(voltage >= min[column])) min[column] = voltage;
+            if (!(voltage <= max[column])) max[column] = voltage;
+            count++;
+        }
+        return count;
+    }
+
+    private int position(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Sample " + index + " of " + size);
+        return (next - size + index + times.length) % times.length;
+    }
+}
@@ -0,0 +1,78 @@
+package physical_network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Checks that two cards can still talk to each other at either end of a long
+ * SegmentedWirePair, where the signal arrives late and weakened.
+ * <p>
+ * One card sends a run of frames to the other on a quiet wire on the simulated clock, the
+ * ACKs coming back the same way. Cards decide between high and low a third of the way down
+ * from the high voltage, so they can take losses of up to 9.5 dB, where only a third of the
+ * voltage arrives. With the default 0.02 dB per metre, 300 m takes 6 dB off the signal and
+ * leaves half of the voltage. Exits with status 1 if frames did not all arrive at every distance.
+ * <p>
+ * Usage: SegmentedWireCheck [delay in ms per metre] [attenuation in dB per metre]
+ */
+public class SegmentedWireCheck {
+
+    private static final int FRAMES = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        double delayPerMetre = args.length > 0 ? Double.parseDouble(args[0]) : 0.1;
+        double attenuationPerMetre = args.length > 1 ? Double.parseDouble(args[1]) : 0.02;
+
+        boolean failed = false;
+        for (double distance : new double[]{0, 100, 300}) {
+            failed |= !run(distance, delayPerMetre, attenuationPerMetre);
+        }
+
+        if (failed) {
+            System.out.println("Frames did not all arrive at every distance.");
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Returns whether every frame arrived once and in order.
+     */
+    private static boolean run(double distance, double delayPerMetre, double attenuationPerMetre)
+            throws InterruptedException {
+        SimulatedClock clock = new SimulatedClock();
+        SegmentedWirePair wire = new SegmentedWirePair(clock, delayPerMetre, attenuationPerMetre);
+        // Cards connect by name, so attaching the names first puts the cards where they belong.
+        wire.connect("NetCard1", 0.0);
+        wire.connect("NetCard2", distance);
+        NetworkCard sender = Simulation.init(new NetworkCard(1, wire));
+        NetworkCard receiver = Simulation.init(new NetworkCard(2, wire));
+
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+        Thread sink = Simulation.startSink(clock, receiver, new Simulation.Receiver() {
+            public void received(DataFrame frame) {
+                received.add(frame.toString());
+            }
+        });
+
+        long start = clock.currentTimeMillis();
+        List<String> sent = new ArrayList<String>();
+        for (int i = 0; i < FRAMES; i++) {
+            String message = "Frame " + i;
+            sender.send(new DataFrame(message, 2));
+            sent.add(message);
+        }
+        clock.sleep(Simulation.QUIET_RUN_TIME - (clock.currentTimeMillis() - start));
+
+        sender.shutdown();
+        receiver.shutdown();
+        Simulation.stop(clock, sink);
+
+        List<String> delivered = new ArrayList<String>(received);
+        System.out.printf("%4.0f m: %4.1f dB, %3.0f ms late, %d of %d frames delivered, %d resent%n",
+                distance, distance * attenuationPerMetre, distance * delayPerMetre, delivered.size(),
+                sent.size(), sender.getMetrics().getRetransmissions());
+        return delivered.equals(sent);
+    }
+}
@@ -0,0 +1,328 @@
+package physical_network;
+
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+
+/**
+ * Twisted wire pair long enough for the position of each device to matter.
+ * <p>
+ * Every device is attached at a position along the wire, in metres. A voltage set by
+ * one device reaches another after a delay and weakened in proportion to the distance
+ * between them, and getVoltage() returns the sum of what arrives at the reading device.
+ * Devices attached "everywhere" (e.g. thermal noise) are seen at full strength without
+ * any delay wherever the wire is read.
+ * <p>
+ * The wire can be divided into segments of a given length, devices then being attached
+ * at the middle of the segment their position falls into. All devices at the same place
+ * reach any reader with the same delay and gain, so they share a tap: a ring buffer of the
+ * most recent changes to the sum of their voltages, from which a reader looks up what the
+ * tap was sending as long ago as the signal needs to reach it. Reading therefore costs time
+ * in proportion to the number of taps rather than devices (see WireBenchmark), and devices
+ * that only listen do not take a tap at all. Without segments every distinct position is a
+ * tap of its own.
+ * <p>
+ * Reads take no locks. Devices at the same tap take turns to add their changes to it.
+ * A reader looking far back may find that the tap has since written over the slots it
+ * was reading, in which case it looks again (see Tap.valueAt()).
+ * <p>
+ * Thermal noise is usually meant to be present along the whole wire, attach it with
+ * connectEverywhere() before creating the ThermalNoise device with the same name.
+ */
+public class SegmentedWirePair implements TwistedWirePair {
+
+    /**
+     * Number of voltage changes remembered per tap. Readers further away than
+     * about this many changes take the oldest one remembered.
+     */
+    public static final int HISTORY_SIZE = 1024;
+
+    // Slots a writer can be filling for its next changes while readers only see the ones before.
+    private static final int REUSED_SLOTS = 2;
+
+    // Voltages are summed as whole nanovolts, so that the running sum of a tap never drifts.
+    private static final double NANOVOLTS_PER_VOLT = 1e9;
+
+    private final Clock clock;
+
+    // Milliseconds it takes a signal to travel one metre.
+    private final double delayPerMetre;
+
+    // Attenuation in decibels per metre.
+    private final double attenuationPerMetre;
+
+    // Length of a segment in metres, 0 for none.
+    private final double segmentLength;
+
+    // All connections in the order they were made, replaced whenever one is added.
+    private volatile Connection[] connections = new Connection[0];
+    private final HashMap<String, Integer> connectionNumbers = new HashMap<String, Integer>();
+
+    // All taps that have had a voltage set, replaced whenever one is added.
+    private volatile Tap[] taps = new Tap[0];
+
+    /**
+     * Creates a wire on which every device is placed exactly where it is attached.
+     *
+     * @param clock               Clock that all devices attached to this wire run against.
+     * @param delayPerMetre       Time for a signal to travel one metre, in milliseconds.
+     * @param attenuationPerMetre Loss of signal strength per metre, in decibels.
+     */
+    public SegmentedWirePair(Clock clock, double delayPerMetre, double attenuationPerMetre) {
+        this(clock, delayPerMetre, attenuationPerMetre, 0.0);
+    }
+
+    /**
+     * @param clock               Clock that all devices attached to this wire run against.
+     * @param delayPerMetre       Time for a signal to travel one metre, in milliseconds.
+     * @param attenuationPerMetre Loss of signal strength per metre, in decibels.
+     * @param segmentLength       Length of the segments the wire is divided into, in metres,
+     *                            or 0 to place every device exactly.
+     */
+    public SegmentedWirePair(Clock clock, double delayPerMetre, double attenuationPerMetre, double segmentLength) {
+        if (delayPerMetre < 0 || attenuationPerMetre < 0 || segmentLength < 0) {
+            throw new IllegalArgumentException("Delay, attenuation and segment length can not be negative.");
+        }
+        this.clock = clock;
+        this.delayPerMetre = delayPerMetre;
+        this.attenuationPerMetre = attenuationPerMetre;
+        this.segmentLength = segmentLength;
+    }
+
+    /**
+     * Attaches a device at the start of the wire, unless it has been attached already.
+     */
+    public int connect(String device) {
+        return connect(device, 0.0);
+    }
+
+    /**
+     * Attaches a device at the given position. Connecting a device a second time returns
+     * its existing connection, wherever it was attached.
+     *
+     * @param position Distance from the start of the wire in metres.
+     */
+    public int connect(String device, double position) {
+        if (segmentLength > 0) {
+            position = (Math.floor(position / segmentLength) + 0.5) * segmentLength;
+        }
+        return connect(device, position, false);
+    }
+
+    /**
+     * Attaches a device whose voltage appears along the whole wire at once.
+     */
+    public int connectEverywhere(String device) {
+        return connect(device, 0.0, true);
+    }
+
+    private synchronized int connect(String device, double position, boolean everywhere) {
+        Integer number = connectionNumbers.get(device);
+        if (number != null) return number;
+
+        Connection[] added = new Connection[connections.length + 1];
+        System.arraycopy(connections, 0, added, 0, connections.length);
+        added[connections.length] = new Connection(position, everywhere);
+        connections = added;
+
+        connectionNumbers.put(device, connections.length - 1);
+        return connections.length - 1;
+    }
+
+    /*
+     * Tap for the place of the connection, added the first time a device there sets a voltage.
+     */
+    private synchronized Tap tapFor(Connection connection) {
+        if (connection.tap != null) return connection.tap;
+
+        for (Tap tap : taps) {
+            if (tap.everywhere == connection.everywhere && tap.position == connection.position) {
+                connection.tap = tap;
+                return tap;
+            }
+        }
+
+        Tap[] added = new Tap[taps.length + 1];
+        System.arraycopy(taps, 0, added, 0, taps.length);
+        added[taps.length] = new Tap(connection.position, connection.everywhere);
+        taps = added;
+
+        connection.tap = added[taps.length - 1];
+        return connection.tap;
+    }
+
+    public void setVoltage(String device, double voltage) {
+        setVoltage(connect(device), voltage);
+    }
+
+    public void setVoltage(int connection, double voltage) {
+        Connection source = connections[connection];
+        Tap tap = source.tap;
+        if (tap == null) {
+            if (voltage == 0.0) return;
+            tap = tapFor(source);
+        }
+        tap.record(source, clock.currentTimeMillis(), voltage);
+    }
+
+    public double getVoltage(String device) {
+        return getVoltage(connect(device));
+    }
+
+    /**
+     * Sums what every tap on the wire is contributing at the reader, so takes time in
+     * proportion to the number of places on the wire that devices have set voltages at.
+     */
+    public double getVoltage(int connection) {
+        Connection reader = connections[connection];
+        View view = reader.view;
+        Tap[] all = taps;
+        if (view == null || view.sources != all) {
+            view = new View(reader, all);
+            reader.view = view;
+        }
+
+        long now = clock.currentTimeMillis();
+        double voltage = 0.0;
+        for (int i = 0; i < view.sources.length; i++) {
+            Tap source = view.sources[i];
+            if (view.gains[i] == 1.0 && view.delays[i] == 0) {
+                voltage += source.current;
+            } else {
+                voltage += view.gains[i] * source.valueAt(now - view.delays[i]);
+            }
+        }
+        return voltage;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * One device's attachment to the wire.
+     */
+    private static class Connection {
+        private final double position;
+        private final boolean everywhere;
+
+        // Tap the device sets its voltages at, null until it first sets one.
+        private volatile Tap tap;
+
+        // Voltage the device is setting, in nanovolts. Guarded by the tap.
+        private long nanovolts = 0;
+
+        // Delays and gains from every tap to this connection, as seen when reading.
+        private volatile View view;
+
+        private Connection(double position, boolean everywhere) {
+            this.position = position;
+            this.everywhere = everywhere;
+        }
+    }
+
+    /**
+     * Place on the wire where devices set voltages, with the history of their sum.
+     */
+    private static class Tap {
+        private final double position;
+        private final boolean everywhere;
+
+        private final long[] times = new long[HISTORY_SIZE];
+        private final double[] voltages = new double[HISTORY_SIZE];
+
+        // Sum of the voltages of the devices at this tap, in nanovolts. Guarded by this.
+        private long total = 0;
+
+        // Number of changes recorded so far, written last to publish a change to readers.
+        private volatile long changes = 0;
+        private volatile double current = 0.0;
+
+        private Tap(double position, boolean everywhere) {
+            this.position = position;
+            this.everywhere = everywhere;
+        }
+
+        private synchronized void record(Connection source, long time, double voltage) {
+            long nanovolts = Math.round(voltage * NANOVOLTS_PER_VOLT);
+            if (nanovolts == source.nanovolts) return;
+            total += nanovolts - source.nanovolts;
+            source.nanovolts = nanovolts;
+            double sum = total / NANOVOLTS_PER_VOLT;
+
+            // Only the last voltage within a clock tick can be seen from elsewhere, so
+            // changes within the same tick replace each other rather than filling the history.
+            long count = changes;
+            if (count > 0 && times[(int) ((count - 1) % HISTORY_SIZE)] == time) {
+                voltages[(int) ((count - 1) % HISTORY_SIZE)] = sum;
+                current = sum;
+                return;
+            }
+
+            int index = (int) (count % HISTORY_SIZE);
+            times[index] = time;
+            voltages[index] = sum;
+            current = sum;
+            changes = count + 1;
+        }
+
+        /*
+         * Voltage the devices at this tap were setting at the given time.
+         */
+        private double valueAt(long time) {
+            while (true) {
+                long count = changes;
+                if (count == 0) return 0.0;
+                int latest = (int) ((count - 1) % HISTORY_SIZE);
+                if (times[latest] <= time) return voltages[latest];
+
+                // Changes are recorded in time order, so search for the last one not after the time.
+                long oldest = Math.max(0, count - HISTORY_SIZE + REUSED_SLOTS);
+                long low = oldest;
+                long high = count - 1;
+                while (low < high) {
+                    long middle = (low + high + 1) >>> 1;
+                    if (times[(int) (middle % HISTORY_SIZE)] <= time) low = middle;
+                    else high = middle - 1;
+                }
+                int index = (int) (low % HISTORY_SIZE);
+                long found = times[index];
+                double voltage = voltages[index];
+
+                // The slots read may have been reused for newer changes meanwhile. Those are
+                // all later than the time, so the search then stops below them and it shows here.
+                VarHandle.loadLoadFence();
+                if (low < changes - HISTORY_SIZE + REUSED_SLOTS) continue;
+
+                if (found <= time) return voltage;
+
+                // Nothing that old is remembered. Before its first change the tap was at 0 V.
+                return count > HISTORY_SIZE - REUSED_SLOTS ? voltage : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Delay and gain from each tap to one reader, worked out once per set of taps.
+     */
+    private class View {
+        private final Tap[] sources;
+        private final long[] delays;
+        private final double[] gains;
+
+        private View(Connection reader, Tap[] sources) {
+            this.sources = sources;
+            this.delays = new long[sources.length];
+            this.gains = new double[sources.length];
+
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].everywhere || reader.everywhere) {
+                    gains[i] = 1.0;
+                    continue;
+                }
+                double distance = Math.abs(sources[i].position - reader.position);
+                delays[i] = Math.round(distance * delayPerMetre);
+                gains[i] = Math.pow(10, -distance * attenuationPerMetre / 20);
+            }
+        }
+    }
+}
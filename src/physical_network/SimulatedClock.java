@@ -0,0 +1,282 @@
+package physical_network;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Discrete-event clock that runs the network as fast as the CPU allows.
+ * <p>
+ * Every device thread registered with the clock is either running, sleeping until some
+ * point in simulated time or waiting for a queue to change. Time only moves forward once
+ * no registered thread is running, at which point it jumps straight to the earliest
+ * pending wake-up time and releases all threads due at that time. A pulse of 100 ms
+ * therefore costs no more than the handful of thread switches needed to process it.
+ * <p>
+ * Threads that are not registered (e.g. the main thread of a test) may still use the
+ * clock, they take part in the simulation only while they are blocked inside it.
+ */
+public class SimulatedClock implements Clock {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // All threads currently taking part in the simulation.
+    private final Map<Thread, Participant> participants = new HashMap<Thread, Participant>();
+
+    // Pending wake-ups ordered by time, then by the order they were scheduled in.
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>(16, new Comparator<Timer>() {
+        public int compare(Timer a, Timer b) {
+            if (a.wakeTime != b.wakeTime) return a.wakeTime < b.wakeTime ? -1 : 1;
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    });
+
+    // Participants waiting for any queue operation to happen.
+    private final List<Participant> changeWaiters = new ArrayList<Participant>();
+
+    private volatile long now = 0;
+    private long timerOrder = 0;
+
+    // Number of participants which are currently running.
+    private int running = 0;
+
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    public void sleep(long millis) throws InterruptedException {
+        if (millis <= 0) return;
+
+        lock.lock();
+        try {
+            Participant participant = enter();
+            try {
+                long wakeTime = deadline(millis);
+                while (now < wakeTime) {
+                    park(participant, wakeTime, false);
+                }
+            } finally {
+                exit(participant);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <E> E take(BlockingQueue<E> queue) throws InterruptedException {
+        return poll(queue, Long.MAX_VALUE);
+    }
+
+    public <E> E poll(BlockingQueue<E> queue, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            Participant participant = enter();
+            try {
+                long deadline = deadline(timeoutMillis);
+                while (true) {
+                    E element = queue.poll();
+                    if (element != null) {
+                        queueChanged();
+                        return element;
+                    }
+                    if (now >= deadline) return null;
+                    park(participant, deadline, true);
+                }
+            } finally {
+                exit(participant);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <E> void put(BlockingQueue<E> queue, E element) throws InterruptedException {
+        lock.lock();
+        try {
+            Participant participant = enter();
+            try {
+                while (!queue.offer(element)) {
+                    park(participant, Long.MAX_VALUE, true);
+                }
+                queueChanged();
+            } finally {
+                exit(participant);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <E> boolean offer(BlockingQueue<E> queue, E element) {
+        lock.lock();
+        try {
+            boolean added = queue.offer(element);
+            if (added) queueChanged();
+            return added;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void register(Thread thread) {
+        lock.lock();
+        try {
+            if (!participants.containsKey(thread)) {
+                participants.put(thread, new Participant());
+                running++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unregister(Thread thread) {
+        lock.lock();
+        try {
+            Participant participant = participants.remove(thread);
+            if (participant == null) return;
+
+            if (participant.runnable) {
+                running--;
+            } else {
+                participant.timer = null;
+                participant.waitingForChange = false;
+            }
+            advance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the thread up as well, so that time stands still until it has dealt with the
+     * interrupt. Otherwise the other threads would keep running the simulation on, and
+     * virtual threads among them might never let the interrupted thread have a turn.
+     */
+    public void interrupt(Thread thread) {
+        lock.lock();
+        try {
+            Participant participant = participants.get(thread);
+            if (participant != null && !participant.runnable) wake(participant);
+            thread.interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Returns the participant for the current thread, temporarily registering
+     * threads that are not taking part in the simulation.
+     */
+    private Participant enter() {
+        Participant participant = participants.get(Thread.currentThread());
+        if (participant != null) return participant;
+
+        participant = new Participant();
+        participant.temporary = true;
+        participants.put(Thread.currentThread(), participant);
+        running++;
+        return participant;
+    }
+
+    private void exit(Participant participant) {
+        if (!participant.temporary) return;
+        unregister(Thread.currentThread());
+    }
+
+    private long deadline(long millis) {
+        return millis >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + millis;
+    }
+
+    /*
+     * Blocks the participant until it is woken up by the timer or, if requested,
+     * by any queue operation. Must be called with the lock held.
+     */
+    private void park(Participant participant, long wakeTime, boolean onChange) throws InterruptedException {
+        // A thread due first wakes itself without ever waiting, so look for interrupts up front.
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        participant.runnable = false;
+        running--;
+
+        if (wakeTime != Long.MAX_VALUE) {
+            participant.timer = new Timer(wakeTime, timerOrder++, participant);
+            timers.add(participant.timer);
+        }
+        if (onChange) {
+            participant.waitingForChange = true;
+            changeWaiters.add(participant);
+        }
+
+        advance();
+
+        try {
+            while (!participant.runnable) {
+                participant.wakeup.await();
+            }
+        } catch (InterruptedException except) {
+            if (!participant.runnable) wake(participant);
+            throw except;
+        }
+    }
+
+    private void wake(Participant participant) {
+        participant.runnable = true;
+        participant.timer = null;
+        participant.waitingForChange = false;
+        running++;
+        participant.wakeup.signal();
+    }
+
+    private void queueChanged() {
+        for (Participant participant : changeWaiters) {
+            if (participant.waitingForChange) wake(participant);
+        }
+        changeWaiters.clear();
+    }
+
+    /*
+     * Moves time forward to the next pending timer once nobody is running.
+     */
+    private void advance() {
+        while (running == 0 && !timers.isEmpty()) {
+            Timer timer = timers.poll();
+            if (timer.participant.timer != timer) continue; // Stale timer.
+
+            if (timer.wakeTime > now) now = timer.wakeTime;
+            wake(timer.participant);
+
+            // Release everyone else who is due at the same time.
+            while (!timers.isEmpty() && timers.peek().wakeTime <= now) {
+                Timer next = timers.poll();
+                if (next.participant.timer == next) wake(next.participant);
+            }
+        }
+    }
+
+    private class Participant {
+        private final Condition wakeup = lock.newCondition();
+        private boolean runnable = true;
+        private boolean waitingForChange = false;
+        private boolean temporary = false;
+        private Timer timer;
+    }
+
+    private static class Timer {
+        private final long wakeTime;
+        private final long order;
+        private final Participant participant;
+
+        private Timer(long wakeTime, long order, Participant participant) {
+            this.wakeTime = wakeTime;
+            this.order = order;
+            this.participant = participant;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package physical_network;
+
+/**
+ * What the checks and benchmarks share for running cards on the simulated clock: cards
+ * that keep quiet, device threads that feed them or take what they receive, and runs of
+ * a benchmark side by side.
+ */
+class Simulation {
+
+    /**
+     * Simulated time allowed for a run on a quiet wire, far longer than its frames take.
+     */
+    static final long QUIET_RUN_TIME = 60 * 60 * 1000;
+
+    /**
+     * Work of a device thread, which goes on until the thread is interrupted.
+     */
+    interface Task {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * Looks at a frame taken off a card, which is released once this returns.
+     */
+    interface Receiver {
+        void received(DataFrame frame);
+    }
+
+    private Simulation() {
+    }
+
+    /**
+     * Initialises a card set up for a run. Reporting every frame would only slow the
+     * simulation down, so events are turned off first.
+     *
+     * @return The card.
+     */
+    static NetworkCard init(NetworkCard card) {
+        card.setEventLevel(EventLevel.OFF);
+        card.init();
+        return card;
+    }
+
+    /**
+     * Starts a device thread running the task on the clock, stopped with stop().
+     */
+    static Thread startDevice(final Clock clock, final Task task) {
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (InterruptedException except) {
+                    // Done.
+                } finally {
+                    clock.unregister(this);
+                }
+            }
+        };
+        clock.register(thread);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Starts a device thread taking every frame the card receives, handing it to the
+     * receiver and releasing it.
+     */
+    static Thread startSink(Clock clock, final NetworkCard card, final Receiver receiver) {
+        return startDevice(clock, new Task() {
+            public void run() throws InterruptedException {
+                while (true) {
+                    DataFrame frame = card.receive();
+                    try {
+                        receiver.received(frame);
+                    } finally {
+                        frame.release();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Interrupts a device thread started on the clock and waits for it to finish.
+     */
+    static void stop(Clock clock, Thread thread) throws InterruptedException {
+        clock.interrupt(thread);
+        thread.join();
+    }
+
+    /**
+     * @return Payload of the given size, the letters of the alphabet over and over.
+     */
+    static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('A' + i % 26);
+        }
+        return payload;
+    }
+
+    /**
+     * One combination of settings in a benchmark, on a clock of its own so that all
+     * combinations can run side by side. The run sets up its wire and cards, lets the
+     * simulated duration pass and then takes its totals. The cards keep going after that,
+     * until the benchmark exits.
+     */
+    abstract static class Run extends Thread {
+        protected final Clock clock = new SimulatedClock();
+        private final long duration;
+
+        protected Run(long duration) {
+            this.duration = duration;
+        }
+
+        public void run() {
+            try {
+                setUp();
+                clock.sleep(duration);
+            } catch (InterruptedException except) {
+                // Report what has been measured so far.
+            }
+            finish();
+        }
+
+        /**
+         * Creates the wire, cards and device threads of the run.
+         */
+        protected abstract void setUp();
+
+        /**
+         * Takes the totals of the run, once the simulated duration has passed.
+         */
+        protected abstract void finish();
+    }
+}
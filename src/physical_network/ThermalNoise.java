@@ -7,6 +7,8 @@
 
 package physical_network;
 
+import java.util.SplittableRandom;
+
 /**
  * 
  * This models thermal noise at a particular voltage level on the wire.
@@ -15,14 +17,59 @@ package physical_network;
  */
 public class ThermalNoise extends Thread {
 
+    /**
+     * Shapes of noise that can be put on the wire.
+     */
+    public enum Model {
+        /**
+         * Evenly spread between -1/2 noiseLevel and 1/2 noiseLevel.
+         */
+        UNIFORM,
+        /**
+         * Normally distributed, with 99.7% of samples (3 standard deviations either side)
+         * between -1/2 noiseLevel and 1/2 noiseLevel.
+         */
+        GAUSSIAN,
+        /**
+         * Quiet except for rare spikes of -1/2 noiseLevel or 1/2 noiseLevel lasting one sample.
+         */
+        IMPULSE,
+        /**
+         * Alternates between long quiet spells with a tenth of the noise level and
+         * shorter bursts of full uniform noise.
+         */
+        BURST
+    }
+
+    // Chance of a spike in each sample with the impulse model.
+    private static final double IMPULSE_PROBABILITY = 0.01;
+
+    // Chances of a burst starting and ending in each sample with the burst model.
+    private static final double BURST_START_PROBABILITY = 0.001;
+    private static final double BURST_END_PROBABILITY = 0.02;
+    private static final double QUIET_LEVEL = 0.1;
+
 	// Device name.
 	private final String deviceName;
 
 	// Thermal noise level in volts.
     private final double noiseLevel;
 
-    // Shared wire object to add the thermal noise to.
+    // Shared wire object to add the thermal noise to, and the connection to it.
     private final TwistedWirePair wire;
+    private final int connection;
+
+    // Clock of the wire, new noise values are set once every sample period.
+    private final Clock clock;
+    private int samplePeriod = 1;
+
+    private Model model = Model.UNIFORM;
+    private long seed = System.nanoTime();
+    private boolean started = false;
+
+    // Only used by the noise thread itself, so it needs no synchronisation.
+    private SplittableRandom random;
+    private boolean inBurst = false;
     
     
     /**
@@ -34,6 +81,46 @@ public class ThermalNoise extends Thread {
     	this.deviceName = deviceName;
         this.noiseLevel = noiseLevel;
         this.wire = wire;
+        this.connection = wire.connect(deviceName);
+        this.clock = wire.getClock();
+    }
+
+    /**
+     * Sets how often a new noise voltage is put on the wire. Must be called before start().
+     *
+     * @param samplePeriod Time between samples in milliseconds of the wire's clock.
+     */
+    public void setSamplePeriod(int samplePeriod) {
+        checkNotStarted();
+        if (samplePeriod < 1) throw new IllegalArgumentException("Sample period must be at least 1 ms: " + samplePeriod);
+        this.samplePeriod = samplePeriod;
+    }
+
+    /**
+     * Selects the shape of the noise. Must be called before start().
+     */
+    public void setModel(Model model) {
+        checkNotStarted();
+        this.model = model;
+    }
+
+    /**
+     * Seeds the random numbers so that the same noise can be produced again. Must be called before start().
+     */
+    public void setSeed(long seed) {
+        checkNotStarted();
+        this.seed = seed;
+    }
+
+    private void checkNotStarted() {
+        if (started) throw new IllegalStateException(deviceName + " has already been started.");
+    }
+
+    @Override
+    public synchronized void start() {
+        started = true;
+        clock.register(this);
+        super.start();
     }
     
     /**
@@ -43,9 +130,33 @@ public class ThermalNoise extends Thread {
     @Override
     public void run() {
 
-        while (true) {
-            wire.setVoltage(deviceName, (Math.random() - 0.5) * noiseLevel);
+        random = new SplittableRandom(seed);
+
+        try {
+            while (true) {
+                wire.setVoltage(connection, nextSample());
+                clock.sleep(samplePeriod);
+            }
+        } catch (InterruptedException except) {
+            System.err.println("Thermal Noise Interrupted: " + getName());
+        } finally {
+            clock.unregister(this);
+        }
+
+    }
+
+    private double nextSample() {
+        switch (model) {
+            case GAUSSIAN:
+                return random.nextGaussian() * noiseLevel / 6;
+            case IMPULSE:
+                if (random.nextDouble() >= IMPULSE_PROBABILITY) return 0.0;
+                return random.nextBoolean() ? noiseLevel / 2 : -noiseLevel / 2;
+            case BURST:
+                inBurst = random.nextDouble() < (inBurst ? 1 - BURST_END_PROBABILITY : BURST_START_PROBABILITY);
+                return (random.nextDouble() - 0.5) * noiseLevel * (inBurst ? 1.0 : QUIET_LEVEL);
+            default:
+                return (random.nextDouble() - 0.5) * noiseLevel;
         }
-        
     }
 }
@@ -0,0 +1,59 @@
+package physical_network;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Kinds of thread a network card can run its transmitter and receiver on.
+ * See NetworkCard.setThreadFactory(), which also takes any other ThreadFactory.
+ */
+public enum ThreadModel implements ThreadFactory {
+
+    /**
+     * An operating system thread for each, as cards have always had. Two per card, so a few
+     * hundred cards on a wire take hundreds of threads that mostly sit waiting for the clock.
+     */
+    PLATFORM {
+        public Thread newThread(Runnable task) {
+            return new Thread(task);
+        }
+    },
+
+    /**
+     * Virtual threads, which the JVM runs on a small pool of operating system threads and
+     * parks while they wait on a lock, so thousands of cards cost no more threads than the
+     * machine has cores. Needs Java 21 or later (see isSupported()). Virtual threads are
+     * always daemon threads: they do not keep the JVM running once the main thread is done.
+     */
+    VIRTUAL {
+        public Thread newThread(Runnable task) {
+            if (VirtualThreads.FACTORY == null) {
+                throw new UnsupportedOperationException("Virtual threads need Java 21 or later.");
+            }
+            return VirtualThreads.FACTORY.newThread(task);
+        }
+    };
+
+    /**
+     * @return Whether threads of this kind can be made on the running JVM.
+     */
+    public boolean isSupported() {
+        return this != VIRTUAL || VirtualThreads.FACTORY != null;
+    }
+
+    /*
+     * Looked up by reflection, so that the rest of the network still builds and runs on
+     * Java 17, the oldest version it needs. Only loaded once virtual threads are first asked for.
+     */
+    private static class VirtualThreads {
+        private static final ThreadFactory FACTORY = lookup();
+
+        private static ThreadFactory lookup() {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException except) {
+                return null;
+            }
+        }
+    }
+}
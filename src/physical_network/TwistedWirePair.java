@@ -36,4 +36,51 @@ public interface TwistedWirePair {
      */
     public double getVoltage(String device);
 
+    /**
+     * Attaches a device to the wire once, so that it can set and read voltages by
+     * connection number rather than looking up its name every time.
+     * Connecting the same device again returns the same number.
+     * <p>
+     * By default the number only stands for the name of the device, and voltages are
+     * still set and read by name. Wires that can look up devices faster by number
+     * override this together with setVoltage(int, double) and getVoltage(int).
+     *
+     * @param device Device to attach.
+     * @return Connection number of the device on this wire.
+     */
+    public default int connect(String device) {
+        return DeviceNames.number(device);
+    }
+
+    /**
+     * Same as setVoltage(String, double) for a device attached with connect().
+     *
+     * @param connection Connection number of the device setting the voltage.
+     * @param voltage    Voltage to set across the wires.
+     */
+    public default void setVoltage(int connection, double voltage) {
+        setVoltage(DeviceNames.name(connection), voltage);
+    }
+
+    /**
+     * Same as getVoltage(String) for a device attached with connect().
+     *
+     * @param connection Connection number of the device testing the voltage.
+     * @return Voltage value across wire pair where this device connects.
+     */
+    public default double getVoltage(int connection) {
+        return getVoltage(DeviceNames.name(connection));
+    }
+
+    /**
+     * This returns the clock that all devices attached to the wire run against,
+     * so that every device shares the same view of time. Unless the wire says
+     * otherwise, that is the wall clock.
+     *
+     * @return Clock of this wire.
+     */
+    public default Clock getClock() {
+        return new RealTimeClock();
+    }
+
 }
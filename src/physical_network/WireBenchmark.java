@@ -0,0 +1,165 @@
+package physical_network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Measures how long reading the wire voltage takes while other threads keep setting
+ * voltages on it as fast as they can, the way a spinning noise source would.
+ * <p>
+ * The lock-free MyTwistedWirePair is compared with a wire that re-sums the voltages of
+ * all devices under a lock on every update, and with a RecordingWirePair writing a trace
+ * of it to nowhere, which shows what recording costs the devices. A SegmentedWirePair is
+ * then measured with growing numbers of devices spread along the same length of wire, once
+ * with every device placed exactly and once with the wire divided into segments, where
+ * reads only take time in proportion to the number of segments in use.
+ * <p>
+ * Usage: WireBenchmark [writer threads...]
+ */
+public class WireBenchmark {
+
+    // Reads are timed in batches, a single read is too short for System.nanoTime().
+    private static final int BATCH_SIZE = 100;
+    private static final int BATCHES = 200000;
+
+    // Wire the devices of a SegmentedWirePair are spread along, and the segments it is divided into.
+    private static final double WIRE_LENGTH = 640.0;
+    private static final double SEGMENT_LENGTH = 40.0;
+
+    // Tells the writers of the current measurement to finish.
+    private static volatile boolean stop;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int[] writerCounts = {0, 1, 2, 4};
+        if (args.length > 0) {
+            writerCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                writerCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("wire           writers  p50(ns)  p99(ns)  max(ns)   writes/s");
+        for (int writers : writerCounts) {
+            measure("locked", new LockedWirePair(), writers, 1, BATCHES);
+            measure("lock-free", new MyTwistedWirePair(), writers, 1, BATCHES);
+
+            RecordingWirePair recording = new RecordingWirePair(new MyTwistedWirePair(), OutputStream.nullOutputStream());
+            measure("recording", recording, writers, 1, BATCHES);
+            recording.close();
+        }
+
+        for (int devices : new int[]{8, 64, 256}) {
+            for (double segmentLength : new double[]{0.0, SEGMENT_LENGTH}) {
+                SegmentedWirePair wire = new SegmentedWirePair(new RealTimeClock(), 0.1, 0.02, segmentLength);
+                for (int i = 0; i < devices; i++) {
+                    wire.connect("Noise " + i, i * WIRE_LENGTH / devices);
+                }
+                // Reads walk the history of every tap, so take fewer of them.
+                int taps = segmentLength > 0 ? (int) Math.min(devices, WIRE_LENGTH / segmentLength) : devices;
+                measure((segmentLength > 0 ? "segments/" : "exact/") + devices, wire, 1, devices, BATCHES / taps);
+            }
+        }
+    }
+
+    /*
+     * Each writer keeps changing the voltage of 'span' devices in turn, starting with its own.
+     */
+    private static void measure(String name, final TwistedWirePair wire, int writerCount, final int span,
+                                int batches) throws InterruptedException {
+        final long[] writes = new long[writerCount];
+        stop = false;
+        Thread[] writers = new Thread[writerCount];
+
+        for (int i = 0; i < writerCount; i++) {
+            final int index = i;
+            final int connection = wire.connect("Noise " + i);
+            writers[i] = new Thread() {
+                public void run() {
+                    long count = 0;
+                    double voltage = 0.0;
+                    while (!stop) {
+                        voltage = voltage > 1.0 ? -1.0 : voltage + 0.001;
+                        wire.setVoltage(connection + (int) (count % span), voltage);
+                        count++;
+                    }
+                    writes[index] = count;
+                }
+            };
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+
+        int connection = wire.connect("Reader");
+        long[] latencies = new long[batches];
+        double sink = 0.0;
+        long start = System.nanoTime();
+        for (int batch = 0; batch < batches; batch++) {
+            long batchStart = System.nanoTime();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                sink += wire.getVoltage(connection);
+            }
+            latencies[batch] = (System.nanoTime() - batchStart) / BATCH_SIZE;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        stop = true;
+        long totalWrites = 0;
+        for (int i = 0; i < writerCount; i++) {
+            writers[i].join();
+            totalWrites += writes[i];
+        }
+
+        Arrays.sort(latencies);
+        // Keep the reads from being optimised away.
+        if (sink == Double.MIN_VALUE) System.out.print("");
+        System.out.printf("%-14s %7d  %7d  %7d  %7d  %9.0f%n", name, writerCount,
+                latencies[batches / 2], latencies[batches * 99 / 100], latencies[batches - 1],
+                totalWrites / seconds);
+    }
+
+    /**
+     * Wire that locks and re-sums every voltage on each update. Devices get slots the
+     * same way as on MyTwistedWirePair, so the two only differ in how they share the sum.
+     */
+    private static class LockedWirePair implements TwistedWirePair {
+        private final HashMap<String, Integer> connections = new HashMap<String, Integer>();
+        private final double[] currentVoltages = new double[MyTwistedWirePair.MAX_DEVICES];
+        private final Clock clock = new RealTimeClock();
+        private double voltage = 0.0;
+
+        public void setVoltage(String device, double voltage) {
+            setVoltage(connect(device), voltage);
+        }
+
+        public double getVoltage(String device) {
+            return getVoltage(0);
+        }
+
+        public synchronized int connect(String device) {
+            Integer connection = connections.get(device);
+            if (connection == null) {
+                connection = connections.size();
+                connections.put(device, connection);
+            }
+            return connection;
+        }
+
+        public synchronized void setVoltage(int connection, double voltage) {
+            currentVoltages[connection] = voltage;
+            this.voltage = 0.0;
+            for (int i = 0; i < connections.size(); i++) {
+                this.voltage += currentVoltages[i];
+            }
+        }
+
+        public synchronized double getVoltage(int connection) {
+            return voltage;
+        }
+
+        public Clock getClock() {
+            return clock;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package physical_network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Checks that a recorded wire plays back to the same effect: a card receiving from a
+ * ReplayWirePair has to deliver the same frames and find the same number of corrupted
+ * ones as the card that received them over the recorded wire.
+ * <p>
+ * One card sends frames to another over a noisy wire, which is recorded. The trace is then
+ * played to a new card standing in for the receiver. Exits with status 1 if it received
+ * anything different. The trace is kept in memory, or written to a file if one is given.
+ * The same run is also timed on the bare wire, to show what recording costs.
+ * <p>
+ * Usage: WireReplayCheck [noise level] [frames] [trace file]
+ */
+public class WireReplayCheck {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        double noise = args.length > 0 ? Double.parseDouble(args[0]) : 1.5;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        OutputStream out = args.length > 2 ? new FileOutputStream(args[2]) : trace;
+
+        // The same run on the bare wire shows what recording costs, after one to warm up.
+        exchange(new MyTwistedWirePair(new SimulatedClock()), noise, frames, new ArrayList<String>());
+        long start = System.nanoTime();
+        exchange(new MyTwistedWirePair(new SimulatedClock()), noise, frames, new ArrayList<String>());
+        double bareSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Record.
+        SimulatedClock clock = new SimulatedClock();
+        RecordingWirePair recording = new RecordingWirePair(new MyTwistedWirePair(clock), out);
+        List<String> received = new ArrayList<String>();
+        start = System.nanoTime();
+        NetworkCard receiver = exchange(recording, noise, frames, received);
+        recording.close();
+        double recordSeconds = (System.nanoTime() - start) / 1e9;
+        long duration = clock.currentTimeMillis();
+        long corrupted = receiver.getMetrics().getCorruptedFrames();
+
+        if (args.length > 2) {
+            System.out.println("Trace written to " + args[2] + ".");
+            return;
+        }
+
+        // Replay, for as long as the recording went on.
+        SimulatedClock replayClock = new SimulatedClock();
+        ReplayWirePair replay = new ReplayWirePair(replayClock, new ByteArrayInputStream(trace.toByteArray()));
+        NetworkCard standIn = Simulation.init(new NetworkCard(2, replay));
+        final BlockingQueue<String> replayed = new LinkedBlockingQueue<String>();
+        Simulation.startSink(replayClock, standIn, new Simulation.Receiver() {
+            public void received(DataFrame frame) {
+                replayed.add(frame.toString());
+            }
+        });
+
+        start = System.nanoTime();
+        replayClock.sleep(duration);
+        double replaySeconds = (System.nanoTime() - start) / 1e9;
+        long replayCorrupted = standIn.getMetrics().getCorruptedFrames();
+
+        System.out.printf("recorded %d ms of wire: %d bytes, %d voltage changes, %.1f bytes each%n",
+                duration, trace.size(), replay.getRecords(), (double) trace.size() / Math.max(1, replay.getRecords()));
+        System.out.printf("bare wire took %.2f s, recording %.2f s, replaying %.2f s%n",
+                bareSeconds, recordSeconds, replaySeconds);
+        System.out.printf("delivered %d / %d frames, corrupted %d / %d%n",
+                received.size(), replayed.size(), corrupted, replayCorrupted);
+
+        if (!received.equals(new ArrayList<String>(replayed)) || corrupted != replayCorrupted) {
+            System.out.println("Replaying the wire did not deliver the same frames.");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /*
+     * Sends the frames from one card to another over the wire with thermal noise on it, adding
+     * those received to the list. Returns the receiving card, which has been shut down.
+     */
+    private static NetworkCard exchange(TwistedWirePair wire, double noise, final int frames, List<String> received)
+            throws InterruptedException {
+        Clock clock = wire.getClock();
+        final NetworkCard sender = Simulation.init(new NetworkCard(1, wire));
+        NetworkCard receiver = Simulation.init(new NetworkCard(2, wire));
+        ThermalNoise thermalNoise = new ThermalNoise("Thermal Noise", noise, wire);
+        thermalNoise.setSeed(42);
+        thermalNoise.start();
+
+        // Sent from a thread of its own, the cards only queue a few frames at a time.
+        Thread source = Simulation.startDevice(clock, new Simulation.Task() {
+            public void run() throws InterruptedException {
+                for (int i = 0; i < frames; i++) {
+                    sender.send(new DataFrame("Frame " + i + " says hello", 2));
+                }
+            }
+        });
+
+        for (int i = 0; i < frames; i++) {
+            DataFrame frame = receiver.receive();
+            received.add(frame.toString());
+            frame.release();
+        }
+
+        source.join();
+        sender.shutdown();
+        receiver.shutdown();
+        thermalNoise.interrupt();
+        thermalNoise.join();
+        return receiver;
+    }
+}